@@ -5,6 +5,7 @@
 package concurrent;
 
 import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author TPatel
@@ -19,6 +20,10 @@ public abstract class BaseWorkTask {
 	protected static final String DASH = "-";
 	/** space constant */
 	protected static final String SPACE = " ";
+	/** default priority; higher values are dequeued first (WorkQueue.QUEUE_TYPE.PRIORITY only) */
+	public static final int NORM_PRIORITY = 0;
+	/** denotes that the task has no deadline */
+	public static final long NO_DEADLINE = 0;
 
 	/*
 	 * these are set by calling object
@@ -26,7 +31,26 @@ public abstract class BaseWorkTask {
 	protected String name;	//task name
 	protected String executedBy;	//denotes which worker is executing the task
 	protected Connection conn;	//worker-provided connection
+	protected StatementBatcher batcher;	//worker-provided statement batcher of conn
 	protected TimerUtil timer;
+	protected Object result;	//value the submit() future completes with
+
+	protected int priority = NORM_PRIORITY;	//used by the PRIORITY queue; reset after each run
+	protected long deadline = NO_DEADLINE;	//time (ms) by which the task should start; reset after each run
+
+	/*
+	 * set by the pool when the task is submitted
+	 */
+	private CompletableFuture<Object> future;
+	/*
+	 * set by the PRIORITY queue when the task enters it: its effective deadline (the sort key) and FIFO sequence
+	 */
+	long orderKey;
+	long enqueueSeq;
+	/*
+	 * number of failed runs so far; maintained by the pool's retry handling
+	 */
+	int attempts;
 
 	/**
 	 * The entry/exit point for the worker.
@@ -88,6 +112,132 @@ public abstract class BaseWorkTask {
 		conn = connection;
 	}
 
+	/**
+	 * Returns the statement batcher of the worker's connection: write rows with
+	 * getBatcher().addBatch(sql, params) instead of executing a statement per row.
+	 * Pending rows are sent when the batch is full and before the connection commits.
+	 * @return
+	 */
+	public StatementBatcher getBatcher() {
+		return batcher;
+	}
+
+	/**
+	 * Set internally by thread.  Do not call this method.
+	 * @param batcher
+	 */
+	void setBatcher(final StatementBatcher batcher) {
+		this.batcher = batcher;
+	}
+
+	/**
+	 * Returns the retry policy of the task; null (default) uses the pool's policy
+	 * (see WorkerThreadPool.setRetryPolicy).  Override for tasks needing their own.
+	 * Note: a retried task runs again from the start, possibly on another connection.
+	 * The failed run's statements and batched rows are rolled back first (to a savepoint set
+	 * before the run); if that is not possible (savepoints not supported and the connection holds
+	 * other uncommitted work) the task is not retried.
+	 * @return
+	 */
+	protected RetryPolicy getRetryPolicy() {
+		return null;
+	}
+
+	/**
+	 * Sets the priority used by the PRIORITY queue (higher is dequeued first):
+	 * each level moves the task's (effective) deadline one aging interval earlier.
+	 * A waiting task gains one priority level per aging interval, so low priorities do not starve.
+	 * Set it before queuing the task; the order is fixed when the task is queued.
+	 * @param priority
+	 */
+	public void setPriority(final int priority) {
+		this.priority = priority;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Sets the time (System.currentTimeMillis() based) by which the task should start.
+	 * The PRIORITY queue runs the earliest (effective) deadline first; tasks without a deadline
+	 * are due one aging interval after they were queued (see PriorityTaskBuffer).
+	 * Changing it while the task is queued does not reorder it.
+	 * @param deadline time in ms; NO_DEADLINE to clear
+	 */
+	public void setDeadline(final long deadline) {
+		this.deadline = deadline;
+	}
+
+	public long getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Sets the value the future returned by WorkerThreadPool.submit() completes with.
+	 * Call from run().
+	 * @param result
+	 */
+	protected void setResult(final Object result) {
+		this.result = result;
+	}
+
+	/**
+	 * Gets the value set by run() (if any)
+	 * @return
+	 */
+	public Object getResult() {
+		return result;
+	}
+
+	/**
+	 * Set internally by the pool on submit().  Do not call this method.
+	 * @param future
+	 */
+	void setFuture(final CompletableFuture<Object> future) {
+		this.future = future;
+	}
+
+	/**
+	 * Called internally by the worker after run(); completes the submit() future (if any)
+	 * with the result or the failure, and clears the per-run state so the task can be recycled.
+	 * @param failure the exception thrown by run(); null if run() completed normally
+	 */
+	void complete(final Throwable failure) {
+		final CompletableFuture<Object> f = future;
+		final Object r = result;
+		reset();
+		if (f != null) {
+			if (failure == null) {
+				f.complete(r);
+			} else {
+				f.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * Called internally by the worker when run() completed normally but rows the task batched
+	 * were not sent yet (or failed): the submit() future completes once they are written
+	 * (see BatchedTask).  Clears the per-run state so the task can be recycled.
+	 * @param rows
+	 * @param pc connection the rows are written with
+	 */
+	void defer(final BatchedTask rows, final PooledConnection pc) {
+		final CompletableFuture<Object> f = future;
+		final Object r = result;
+		reset();
+		rows.finished(name, f, r, pc);
+	}
+
+	private void reset() {
+		future = null;
+		result = null;
+		priority = NORM_PRIORITY;
+		deadline = NO_DEADLINE;
+		attempts = 0;
+	}
+
 	/**
 	 * Trims a String to the specified length
 	 * @param str
@@ -0,0 +1,96 @@
+package concurrent;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The rows a task added to a StatementBatcher, and the outcome of the task while they wait.
+ *
+ * A task whose run() returned while some of its rows were still pending is not complete yet:
+ * its submit() future and its journal entry wait until the last of its rows is sent, and fail
+ * if a batch holding its rows fails or is rolled back (not only the task that sent the batch).
+ *
+ * Used by the thread holding the connection only.
+ *
+ * @author TPatel
+ */
+final class BatchedTask {
+	/** rows added by the task and not sent yet */
+	private int pendingRows = 0;
+	/** failure of a batch that held rows of the task; null if none */
+	private Throwable failure;
+	/** set once run() returned (see finished) */
+	private boolean finished = false;
+	private String name;
+	private CompletableFuture<Object> future;
+	private Object result;
+	private PooledConnection pc;
+
+	void rowAdded() {
+		pendingRows++;
+	}
+
+	void rowSent() {
+		if (--pendingRows == 0 && finished && failure == null) {
+			succeed();
+		}
+	}
+
+	void rowDropped() {
+		pendingRows--;
+	}
+
+	/**
+	 * A batch holding rows of the task failed (or was rolled back)
+	 * @param cause
+	 */
+	void failed(final Throwable cause) {
+		if (failure == null) {
+			failure = cause;
+			if (finished) {
+				fail();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if every row of the task was sent and none failed
+	 * @return
+	 */
+	boolean isWritten() {
+		return pendingRows == 0 && failure == null;
+	}
+
+	/**
+	 * Called (through BaseWorkTask.defer) once run() returned with rows still pending or failed
+	 * @param taskName
+	 * @param taskFuture submit() future; null if none
+	 * @param taskResult
+	 * @param conn the connection the rows are written with (journals the task once committed)
+	 */
+	void finished(final String taskName, final CompletableFuture<Object> taskFuture, final Object taskResult, final PooledConnection conn) {
+		name = taskName;
+		future = taskFuture;
+		result = taskResult;
+		pc = conn;
+		finished = true;
+		if (failure != null) {
+			fail();
+		} else if (pendingRows == 0) {
+			succeed();
+		}
+	}
+
+	private void succeed() {
+		pc.taskSucceeded(name);
+		if (future != null) {
+			future.complete(result);
+		}
+	}
+
+	private void fail() {
+		System.err.println("Task " + name + " failed after it ran; its batched rows were not written: " + failure);
+		if (future != null) {
+			future.completeExceptionally(failure);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on a shared executor with at most maxParallelism of them running at once.
+ *
+ * Up to maxParallelism "lanes" are started on the executor; a lane runs tasks
+ * until the queue is empty and then ends, so an idle dispatcher holds no thread.
+ * Tasks beyond maxParallelism wait in the queue (they are not handed to the executor),
+ * so many dispatchers can share one executor without one flooding it.
+ *
+ * @author TPatel
+ */
+final class BoundedDispatcher {
+	private final Executor executor;
+	private final int maxParallelism;
+	private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<Runnable>();
+	/** number of lanes started and not ended */
+	private final AtomicInteger lanes = new AtomicInteger();
+
+	BoundedDispatcher(final Executor executor, final int maxParallelism) {
+		if (maxParallelism < 1) {
+			throw new IllegalArgumentException("Invalid max parallelism: " + maxParallelism);
+		}
+		this.executor = executor;
+		this.maxParallelism = maxParallelism;
+	}
+
+	/**
+	 * Runs the task as soon as a lane is free
+	 * @param task
+	 */
+	void execute(final Runnable task) {
+		queue.add(task);
+		startLane();
+	}
+
+	/**
+	 * Starts a lane if under the limit and tasks are waiting
+	 */
+	private void startLane() {
+		while (!queue.isEmpty()) {
+			final int current = lanes.get();
+			if (current >= maxParallelism) {
+				return;	//a running lane will pick the task up
+			}
+			if (lanes.compareAndSet(current, current + 1)) {
+				try {
+					executor.execute(new Runnable() {
+						public void run() {
+							runLane();
+						}
+					});
+				} catch (RuntimeException e) {
+					lanes.decrementAndGet();
+					throw e;
+				}
+				return;
+			}
+		}
+	}
+
+	private void runLane() {
+		while (true) {
+			Runnable task;
+			while ((task = queue.poll()) != null) {
+				task.run();
+			}
+			lanes.decrementAndGet();
+			//a task added after the last poll but before the decrement may have seen the lane as running
+			if (queue.isEmpty() || !reacquireLane()) {
+				return;
+			}
+		}
+	}
+
+	private boolean reacquireLane() {
+		while (true) {
+			final int current = lanes.get();
+			if (current >= maxParallelism) {
+				return false;
+			}
+			if (lanes.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package concurrent;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation of the methods run by ParallelMethods.execute().
+ *
+ * The token is cancelled when a method fails with ON_EXCEP.STOP/EXCEP, when execute()
+ * times out, or by ParallelMethods.cancel().  Running methods are interrupted as well,
+ * which ends blocking calls (sleep, wait, I/O on interruptible channels); long computations
+ * should poll the token, available to the running method through ParallelMethods.currentToken():
+ *
+ *   for (Row row : rows) {
+ *       ParallelMethods.currentToken().throwIfCancelled();
+ *       ...
+ *   }
+ *
+ * @author TPatel
+ */
+public final class CancellationToken {
+	/** token of code not run by ParallelMethods; never cancelled */
+	static final CancellationToken NONE = new CancellationToken();
+
+	private volatile String reason;
+
+	CancellationToken() {
+	}
+
+	/**
+	 * Cancels the token (first reason wins)
+	 * @param why
+	 * @return true if this call cancelled the token
+	 */
+	synchronized boolean cancel(final String why) {
+		if (this == NONE || reason != null) {
+			return false;
+		}
+		reason = why == null ? "Cancelled" : why;
+		return true;
+	}
+
+	/**
+	 * Returns true if the remaining work should be abandoned
+	 * @return
+	 */
+	public boolean isCancelled() {
+		return reason != null;
+	}
+
+	/**
+	 * Returns why the token was cancelled; null if not cancelled
+	 * @return
+	 */
+	public String getReason() {
+		return reason;
+	}
+
+	/**
+	 * Throws a CancellationException if the token was cancelled
+	 */
+	public void throwIfCancelled() {
+		final String why = reason;
+		if (why != null) {
+			throw new CancellationException(why);
+		}
+	}
+
+	public String toString() {
+		return "CancellationToken[" + (reason == null ? "active" : reason) + "]";
+	}
+}
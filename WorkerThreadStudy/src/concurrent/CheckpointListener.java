@@ -0,0 +1,30 @@
+package concurrent;
+
+import java.sql.SQLException;
+
+/**
+ * Notified when a worker commits its connection part way through the run
+ * (see WorkerThreadPool.setCommitInterval).
+ *
+ * Callbacks run on the worker thread between two tasks, holding the connection.
+ *
+ * @author TPatel
+ */
+public interface CheckpointListener {
+	/**
+	 * Called before the commit, in the transaction being committed;
+	 * e.g. to record the progress made so far with the same connection.
+	 * Throwing rolls the transaction back instead.
+	 * @param conn the connection about to be committed
+	 * @param tasks number of tasks in the transaction
+	 * @throws SQLException
+	 */
+	void beforeCheckpoint(PooledConnection conn, int tasks) throws SQLException;
+
+	/**
+	 * Called once the commit succeeded
+	 * @param conn the connection just committed
+	 * @param tasks number of tasks committed
+	 */
+	void afterCheckpoint(PooledConnection conn, int tasks);
+}
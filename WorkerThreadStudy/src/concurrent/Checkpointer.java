@@ -0,0 +1,107 @@
+package concurrent;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides when a worker commits its connection between tasks, and performs the commit.
+ *
+ * A commit is due once the connection ran commitEveryTasks tasks, or commitEveryMillis
+ * elapsed since its last commit (whichever comes first; 0 disables either trigger).
+ * Both disabled (default) keeps the original behavior: a single commit in commitWorkers().
+ *
+ * A failed commit rolls back tasks whose futures already completed, so it stops the run
+ * (see WorkerThreadPool.getRunFailure); the rolled back tasks are not journaled and run again on restart.
+ *
+ * @author TPatel
+ */
+final class Checkpointer {
+	private final WorkerThreadPool pool;
+	private volatile int commitEveryTasks = 0;
+	private volatile long commitEveryMillis = 0;
+	private final List<CheckpointListener> listeners = new CopyOnWriteArrayList<CheckpointListener>();
+
+	private final LongAdder checkpoints = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+
+	Checkpointer(final WorkerThreadPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * @param everyTasks commit after this many tasks per connection; 0 to disable
+	 * @param everyMillis commit after this much time per connection; 0 to disable
+	 */
+	void setInterval(final int everyTasks, final long everyMillis) {
+		if (everyTasks < 0 || everyMillis < 0) {
+			throw new IllegalArgumentException("Invalid commit interval: " + everyTasks + " tasks, " + everyMillis + "ms");
+		}
+		commitEveryTasks = everyTasks;
+		commitEveryMillis = everyMillis;
+	}
+
+	void addListener(final CheckpointListener listener) {
+		listeners.add(listener);
+	}
+
+	void removeListener(final CheckpointListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Commits the connection if a commit is due; called by the worker after each task
+	 * @param pc
+	 */
+	void afterTask(final PooledConnection pc) {
+		final int everyTasks = commitEveryTasks;
+		final long everyMillis = commitEveryMillis;
+		if ((everyTasks > 0 && pc.getUncommittedTasks() >= everyTasks)
+				|| (everyMillis > 0 && pc.isDirty() && System.currentTimeMillis() - pc.getLastCommit() >= everyMillis)) {
+			checkpoint(pc);
+		}
+	}
+
+	/**
+	 * Commits the connection, notifying the listeners;
+	 * if a listener or the commit fails, the transaction is rolled back and the run stopped
+	 * @param pc
+	 */
+	void checkpoint(final PooledConnection pc) {
+		final int tasks = pc.getUncommittedTasks();
+		try {
+			for (CheckpointListener listener : listeners) {
+				listener.beforeCheckpoint(pc, tasks);
+			}
+			pc.commit();
+		} catch (Exception e) {
+			failures.increment();
+			System.err.println("Checkpoint of " + tasks + " tasks failed for " + pc.getName() + "; rolling back");
+			e.printStackTrace();
+			try {
+				pc.rollback();
+			} catch (SQLException re) {
+				re.printStackTrace();
+			}
+			pool.abort(new IllegalStateException("Checkpoint of " + tasks + " tasks failed for " + pc.getName() + "; they were rolled back", e));
+			return;
+		}
+		checkpoints.increment();
+		for (CheckpointListener listener : listeners) {
+			try {
+				listener.afterCheckpoint(pc, tasks);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	long getCheckpointCount() {
+		return checkpoints.sum();
+	}
+
+	long getFailureCount() {
+		return failures.sum();
+	}
+}
@@ -0,0 +1,176 @@
+package concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Counts the tasks that have been queued but not finished yet.
+ *
+ * Producers call begin() when queuing, workers call end() once the task has run.
+ * Both are a single atomic operation; the lock is only taken on the transition
+ * to zero (to wake the waiters) and by the waiters themselves.
+ *
+ * end() also counts the task in the slot of the current second, so the completion rate
+ * over the last RATE_WINDOW_SECONDS is known without any state kept by the readers.
+ *
+ * @author TPatel
+ */
+public final class CompletionTracker {
+	/** seconds getCompletedPerSecond() averages over */
+	public static final int RATE_WINDOW_SECONDS = 10;
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final AtomicLong inFlight = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	/** total time spent running the finished tasks */
+	private final LongAdder busyNanos = new LongAdder();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition idle = lock.newCondition();
+	/** time the seconds of the slots are counted from */
+	private final long startNanos = System.nanoTime();
+	/** per second slot (second % length): second << 32 | tasks completed in that second */
+	private final AtomicLongArray secondCounts = new AtomicLongArray(RATE_WINDOW_SECONDS + 1);
+
+	/**
+	 * Registers a task that was queued
+	 */
+	public void begin() {
+		inFlight.incrementAndGet();
+	}
+
+	/**
+	 * Registers a number of tasks that were queued
+	 * @param count
+	 */
+	public void begin(final int count) {
+		inFlight.addAndGet(count);
+	}
+
+	/**
+	 * Registers a task that finished running (successfully or not)
+	 */
+	public void end() {
+		completed.incrementAndGet();
+		countSecond();
+		if (inFlight.decrementAndGet() == 0) {
+			lock.lock();
+			try {
+				idle.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Registers a task that finished running, along with the time it took
+	 * @param runNanos
+	 */
+	public void end(final long runNanos) {
+		busyNanos.add(runNanos);
+		end();
+	}
+
+	/**
+	 * Returns number of tasks queued or running
+	 * @return
+	 */
+	public long getInFlight() {
+		return inFlight.get();
+	}
+
+	/**
+	 * Returns number of tasks finished since creation
+	 * @return
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * Returns the tasks finished per second over the last RATE_WINDOW_SECONDS full seconds
+	 * (or since creation, if more recent)
+	 * @return
+	 */
+	public double getCompletedPerSecond() {
+		final long now = (System.nanoTime() - startNanos) / NANOS_PER_SECOND;
+		final long seconds = Math.min(now, RATE_WINDOW_SECONDS);
+		if (seconds == 0) {
+			return 0;
+		}
+		long count = 0;
+		for (int i = 0; i < secondCounts.length(); i++) {
+			final long slot = secondCounts.get(i);
+			final long second = slot >>> 32;
+			if (second < now && second >= now - seconds) {
+				count += slot & 0xFFFFFFFFL;
+			}
+		}
+		return (double) count / seconds;
+	}
+
+	/**
+	 * Counts a finished task in the slot of the current second (restarting the slot if it held an older second)
+	 */
+	private void countSecond() {
+		final long second = (System.nanoTime() - startNanos) / NANOS_PER_SECOND;
+		final int idx = (int) (second % secondCounts.length());
+		while (true) {
+			final long slot = secondCounts.get(idx);
+			final long next = slot >>> 32 == second ? slot + 1 : second << 32 | 1;
+			if (secondCounts.compareAndSet(idx, slot, next)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns total time (ns) spent running the tasks reported through end(long)
+	 * @return
+	 */
+	public long getBusyNanos() {
+		return busyNanos.sum();
+	}
+
+	/**
+	 * Blocks until every task queued so far has finished
+	 * @throws InterruptedException
+	 */
+	public void await() throws InterruptedException {
+		lock.lock();
+		try {
+			while (inFlight.get() > 0) {
+				idle.await();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Blocks until every task queued so far has finished or the timeout elapses
+	 * @param timeout
+	 * @param unit
+	 * @return true if all tasks finished; false if the timeout elapsed first
+	 * @throws InterruptedException
+	 */
+	public boolean await(final long timeout, final TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lock();
+		try {
+			while (inFlight.get() > 0) {
+				if (nanos <= 0) {
+					return false;
+				}
+				nanos = idle.awaitNanos(nanos);
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
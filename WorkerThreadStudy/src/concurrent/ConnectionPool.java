@@ -0,0 +1,334 @@
+package concurrent;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import externals.TIERSBatchController;
+import externals.TIERSBatchException;
+
+/**
+ * Pool of connections between the workers and the TIERSBatchController.
+ *
+ *  - lazy: connections are created on first demand, up to maxConnections
+ *    (independent of the number of workers; workers beyond it wait for a connection)
+ *  - validated: a connection idle for more than VALIDATE_AFTER_MILLIS is checked
+ *    with Connection.isValid() before it is handed out; broken ones are replaced
+ *  - evicted: clean connections idle for longer than the idle timeout are closed
+ *    by a background thread; dirty ones (uncommitted work) are kept until commitWorkers()
+ *
+ * Idle connections are reused most recently used first, so under light load the
+ * same few connections stay warm and the rest age out.
+ *
+ * @author TPatel
+ */
+public final class ConnectionPool {
+	/** connections will be named as this prefix + connection count */
+	private static final String BASE_NAME = "MyConn";
+	/** default time a clean connection may stay idle before it is closed */
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+	/** connections idle for longer than this are validated before use */
+	private static final long VALIDATE_AFTER_MILLIS = 1000;
+	/** max time to wait for the database when validating */
+	private static final int VALIDATE_TIMEOUT_SECS = 2;
+
+	private final TIERSBatchController batchController;
+	private final int maxConnections;
+	private final long idleTimeoutMillis;
+	/** one permit per connection that may be handed out */
+	private final Semaphore permits;
+	/** connections not in use; most recently used first */
+	private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<PooledConnection>();
+	/** every open connection */
+	private final List<PooledConnection> all = new CopyOnWriteArrayList<PooledConnection>();
+	private final AtomicInteger nameCounter = new AtomicInteger();
+	private final AtomicInteger evicted = new AtomicInteger();
+	private final AtomicInteger replaced = new AtomicInteger();
+	/** rows per statement batch of the connections (see StatementBatcher) */
+	private volatile int statementBatchSize = StatementBatcher.DEFAULT_BATCH_SIZE;
+	private volatile int statementCacheSize = StatementBatcher.DEFAULT_MAX_STATEMENTS;
+	/** records the tasks completed with the connections; null if not journaling */
+	private volatile TaskJournal journal;
+
+	private final Thread evictor;
+	private volatile boolean closed = false;
+
+	/**
+	 * Creates the pool (no connections are opened until needed)
+	 * @param batch
+	 * @param maxConnections
+	 * @throws TIERSBatchException
+	 */
+	public ConnectionPool(final TIERSBatchController batch, final int maxConnections) throws TIERSBatchException {
+		this(batch, maxConnections, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Creates the pool (no connections are opened until needed)
+	 * @param batch
+	 * @param maxConnections
+	 * @param idleTimeoutMillis time a clean connection may stay idle before it is closed; 0 never closes
+	 * @throws TIERSBatchException
+	 */
+	public ConnectionPool(final TIERSBatchController batch, final int maxConnections, final long idleTimeoutMillis) throws TIERSBatchException {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("Must use at least one connection");
+		}
+		if (batch == null) {
+			throw new TIERSBatchException("BatchController is null; Unable to get connections");
+		}
+		batchController = batch;
+		this.maxConnections = maxConnections;
+		this.idleTimeoutMillis = idleTimeoutMillis;
+		permits = new Semaphore(maxConnections, true);
+
+		if (idleTimeoutMillis > 0) {
+			evictor = new Thread(new Runnable() {
+				public void run() {
+					evictLoop();
+				}
+			}, "MyConnEvictor");
+			evictor.setDaemon(true);
+			evictor.start();
+		} else {
+			evictor = null;
+		}
+	}
+
+	/**
+	 * Gets a connection; blocks while maxConnections are in use
+	 * @return
+	 * @throws TIERSBatchException if a new connection could not be opened
+	 */
+	public PooledConnection acquire() throws TIERSBatchException {
+		permits.acquireUninterruptibly();
+		try {
+			PooledConnection pc;
+			while ((pc = idle.pollFirst()) != null) {
+				if (System.currentTimeMillis() - pc.getLastUsed() < VALIDATE_AFTER_MILLIS || pc.isValid(VALIDATE_TIMEOUT_SECS)) {
+					return pc;
+				}
+				discard(pc);
+			}
+			return open();
+		} catch (TIERSBatchException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool
+	 * @param pc
+	 */
+	public void release(final PooledConnection pc) {
+		pc.touch();
+		idle.offerFirst(pc);
+		permits.release();
+	}
+
+	/**
+	 * Checks a connection held for a long time (e.g. by a pinned worker) and replaces it if broken
+	 * @param pc
+	 * @return pc if still valid; otherwise a new connection
+	 * @throws TIERSBatchException if a new connection could not be opened
+	 */
+	PooledConnection renew(final PooledConnection pc) throws TIERSBatchException {
+		if (System.currentTimeMillis() - pc.getLastUsed() < VALIDATE_AFTER_MILLIS || pc.isValid(VALIDATE_TIMEOUT_SECS)) {
+			pc.touch();
+			return pc;
+		}
+		discard(pc);
+		return open();	//keeps the permit of the discarded connection
+	}
+
+	/**
+	 * Opens a new connection (the caller holds a permit)
+	 * @return
+	 * @throws TIERSBatchException
+	 */
+	private PooledConnection open() throws TIERSBatchException {
+		final int num = nameCounter.incrementAndGet();
+		final PooledConnection pc = new PooledConnection(BASE_NAME + (num < 10 ? "0" + num : "" + num), batchController.getConnection());
+		pc.getBatcher().setBatchSize(statementBatchSize);
+		pc.getBatcher().setMaxStatements(statementCacheSize);
+		pc.setJournal(journal);
+		all.add(pc);
+		return pc;
+	}
+
+	/**
+	 * Closes and forgets a broken connection
+	 * @param pc
+	 */
+	private void discard(final PooledConnection pc) {
+		all.remove(pc);
+		replaced.incrementAndGet();
+		if (pc.isDirty()) {
+			System.err.println("ConnectionPool: " + pc.getName() + " is no longer valid; uncommitted work was lost");
+		}
+		try {
+			pc.close();
+		} catch (SQLException e) {
+			//already broken
+		}
+	}
+
+	/**
+	 * Closes clean connections idle for longer than the idle timeout
+	 */
+	void evictIdle() {
+		final long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+		final Iterator<PooledConnection> it = idle.descendingIterator();	//oldest first
+		while (it.hasNext()) {
+			final PooledConnection pc = it.next();
+			if (!pc.isDirty() && pc.getLastUsed() < cutoff && idle.remove(pc)) {
+				all.remove(pc);
+				evicted.incrementAndGet();
+				try {
+					pc.close();
+				} catch (SQLException e) {
+					System.err.println("ConnectionPool: Unable to close " + pc.getName() + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	private void evictLoop() {
+		final long interval = Math.max(1000, idleTimeoutMillis / 2);
+		while (!closed) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;	//close() interrupts
+			}
+			evictIdle();
+		}
+	}
+
+	/**
+	 * Returns every open connection (in use or idle)
+	 * @return
+	 */
+	public List<PooledConnection> getConnections() {
+		return new ArrayList<PooledConnection>(all);
+	}
+
+	/**
+	 * Returns a map of the open connections by name
+	 * @return
+	 */
+	public HashMap<String, Connection> getConnectionMap() {
+		final HashMap<String, Connection> connMap = new HashMap<String, Connection>();
+		for (PooledConnection pc : all) {
+			connMap.put(pc.getName(), pc.getConnection());
+		}
+		return connMap;
+	}
+
+	/**
+	 * Sets the number of rows per statement at which the connections' StatementBatchers send the batch
+	 * (applies to subsequent rows of open connections too)
+	 * @param size
+	 */
+	public void setStatementBatchSize(final int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + size);
+		}
+		statementBatchSize = size;
+		for (PooledConnection pc : all) {
+			pc.getBatcher().setBatchSize(size);
+		}
+	}
+
+	/**
+	 * Sets the number of prepared statements the connections' StatementBatchers cache
+	 * (applies to open connections too)
+	 * @param size
+	 */
+	public void setStatementCacheSize(final int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Invalid statement cache size: " + size);
+		}
+		statementCacheSize = size;
+		for (PooledConnection pc : all) {
+			pc.getBatcher().setMaxStatements(size);
+		}
+	}
+
+	/**
+	 * Sets the journal the connections record their committed tasks in
+	 * @param journal null to stop journaling
+	 */
+	void setJournal(final TaskJournal journal) {
+		this.journal = journal;
+		for (PooledConnection pc : all) {
+			pc.setJournal(journal);
+		}
+	}
+
+	TIERSBatchController getBatchController() {
+		return batchController;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Returns number of open connections
+	 * @return
+	 */
+	public int size() {
+		return all.size();
+	}
+
+	/**
+	 * Returns number of open connections not in use
+	 * @return
+	 */
+	public int getIdleCount() {
+		return idle.size();
+	}
+
+	/**
+	 * Returns number of connections closed for being idle
+	 * @return
+	 */
+	public int getEvictedCount() {
+		return evicted.get();
+	}
+
+	/**
+	 * Returns number of connections replaced for failing validation
+	 * @return
+	 */
+	public int getReplacedCount() {
+		return replaced.get();
+	}
+
+	/**
+	 * Stops the eviction thread; the connections themselves are closed by the owner (see WorkerThreadPool.commitWorkers)
+	 */
+	public void close() {
+		closed = true;
+		if (evictor != null) {
+			evictor.interrupt();
+		}
+	}
+
+	public String toString() {
+		return "ConnectionPool[open=" + size() + "/" + maxConnections + ", idle=" + getIdleCount()
+				+ ", evicted=" + getEvictedCount() + ", replaced=" + getReplacedCount() + "]";
+	}
+}
@@ -0,0 +1,150 @@
+package concurrent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds the tasks that failed and ran out of retries, with their last failure,
+ * for inspection or to be queued again (WorkerThreadPool.resubmit()).
+ *
+ * Bounded: past the capacity the oldest entries are dropped (and counted).
+ *
+ * @author TPatel
+ */
+public final class DeadLetterQueue {
+	/** default max number of entries held */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	private final ConcurrentLinkedQueue<Entry> entries = new ConcurrentLinkedQueue<Entry>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final int capacity;
+
+	DeadLetterQueue(final int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Adds a failed task
+	 * @param task
+	 * @param failure
+	 * @param attempts
+	 */
+	void add(final BaseWorkTask task, final Throwable failure, final int attempts) {
+		entries.add(new Entry(task, failure, attempts));
+		total.incrementAndGet();
+		if (size.incrementAndGet() > capacity && entries.poll() != null) {
+			size.decrementAndGet();
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes and returns the oldest entry
+	 * @return null if empty
+	 */
+	public Entry poll() {
+		final Entry entry = entries.poll();
+		if (entry != null) {
+			size.decrementAndGet();
+		}
+		return entry;
+	}
+
+	/**
+	 * Removes and returns all entries, oldest first
+	 * @return
+	 */
+	public List<Entry> drain() {
+		final ArrayList<Entry> list = new ArrayList<Entry>();
+		Entry entry;
+		while ((entry = poll()) != null) {
+			list.add(entry);
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the entries without removing them, oldest first
+	 * @return
+	 */
+	public List<Entry> getEntries() {
+		return new ArrayList<Entry>(entries);
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Returns number of tasks added since creation
+	 * @return
+	 */
+	public long getTotalCount() {
+		return total.get();
+	}
+
+	/**
+	 * Returns number of entries dropped because the queue was full
+	 * @return
+	 */
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public String toString() {
+		return "DeadLetterQueue[size=" + size() + ", total=" + getTotalCount() + ", dropped=" + getDroppedCount() + "]";
+	}
+
+	/**
+	 * A failed task and its last failure
+	 */
+	public static final class Entry {
+		private final BaseWorkTask task;
+		private final Throwable failure;
+		private final int attempts;
+		private final long time = System.currentTimeMillis();
+
+		private Entry(final BaseWorkTask task, final Throwable failure, final int attempts) {
+			this.task = task;
+			this.failure = failure;
+			this.attempts = attempts;
+		}
+
+		public BaseWorkTask getTask() {
+			return task;
+		}
+
+		/**
+		 * Returns the exception thrown by the last run
+		 * @return
+		 */
+		public Throwable getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Returns number of times the task ran
+		 * @return
+		 */
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * Returns time (ms) the task was given up on
+		 * @return
+		 */
+		public long getTime() {
+			return time;
+		}
+
+		public String toString() {
+			return task + " (" + attempts + " attempts): " + failure;
+		}
+	}
+}
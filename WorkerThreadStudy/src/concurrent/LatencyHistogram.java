@@ -0,0 +1,172 @@
+package concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size, log-linear latency histogram (HDR style) of nanosecond timings.
+ *
+ * Values below 2^SUB_BITS ns get a bucket each; above that every power of two range is
+ * split in 2^SUB_BITS linear buckets, so a value is known within ~3% whatever its
+ * magnitude.  Values above MAX_TRACKABLE (~9.2 min) are counted in the last bucket;
+ * the max is kept exactly.
+ *
+ * record() is meant to be called by a single thread (MethodTimer keeps one histogram per
+ * thread); other threads may read it at any time, e.g. to add() it to a merged histogram.
+ *
+ * @author TPatel
+ */
+public final class LatencyHistogram {
+	/** linear buckets per power of two (2^5 = 32; ~3% precision) */
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	/** largest power of two tracked by its own buckets */
+	private static final int MAX_EXPONENT = 38;
+	/** largest value tracked by its own bucket: 2^39 - 1 ns (~550 s, ~9.2 min) */
+	public static final long MAX_TRACKABLE = (1L << (MAX_EXPONENT + 1)) - 1;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private volatile long totalCount;
+	/** sum of the recorded timings (ns) */
+	private volatile long total;
+	private volatile long max;
+
+	/**
+	 * Records one timing (single writer)
+	 * @param nanos
+	 */
+	public void record(final long nanos) {
+		final long value = nanos < 0 ? 0 : nanos;
+		final int idx = indexOf(value);
+		counts.lazySet(idx, counts.get(idx) + 1);
+		if (value > max) {
+			max = value;
+		}
+		total = total + value;
+		totalCount = totalCount + 1;
+	}
+
+	/**
+	 * Adds the counts of the other histogram to this one (merging the timings of several threads)
+	 * @param other
+	 */
+	public synchronized void add(final LatencyHistogram other) {
+		long added = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			final long c = other.counts.get(i);
+			if (c > 0) {
+				counts.addAndGet(i, c);
+				added += c;
+			}
+		}
+		totalCount += added;
+		total += other.total;
+		if (other.max > max) {
+			max = other.max;
+		}
+	}
+
+	/**
+	 * Returns number of recorded timings
+	 * @return
+	 */
+	public long getCount() {
+		return totalCount;
+	}
+
+	/**
+	 * Returns the sum of the recorded timings (ns)
+	 * @return
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * Returns the largest recorded timing (ns)
+	 * @return
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the timing (ns) at or below which the given percentage of the timings fall
+	 * @param percentile 0..100 (e.g. 99.9)
+	 * @return 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueIn(i), max);
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns p50/p90/p99/p99.9/max
+	 */
+	public String toString() {
+		return "p50=" + format(getValueAtPercentile(50)) + " p90=" + format(getValueAtPercentile(90))
+				+ " p99=" + format(getValueAtPercentile(99)) + " p99.9=" + format(getValueAtPercentile(99.9))
+				+ " max=" + format(max);
+	}
+
+	/**
+	 * Formats a nanosecond timing with a readable unit
+	 * @param nanos
+	 * @return
+	 */
+	static String format(final long nanos) {
+		if (nanos < 10000L) {
+			return nanos + "ns";
+		} else if (nanos < 10000000L) {
+			return (nanos / 1000) + "us";
+		} else if (nanos < 10000000000L) {
+			return (nanos / 1000000) + "ms";
+		}
+		return (nanos / 1000000000L) + "s";
+	}
+
+	/**
+	 * Returns the bucket of the value
+	 * @param value
+	 * @return
+	 */
+	private static int indexOf(final long value) {
+		if (value < SUB_COUNT) {
+			return (int) value;
+		}
+		if (value > MAX_TRACKABLE) {
+			return BUCKETS - 1;
+		}
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int shift = exponent - SUB_BITS;
+		return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+	}
+
+	/**
+	 * Returns the largest value counted in the bucket
+	 * @param idx
+	 * @return
+	 */
+	private static long highestValueIn(final int idx) {
+		if (idx < SUB_COUNT) {
+			return idx;
+		}
+		final int shift = idx / SUB_COUNT - 1;
+		final long lowest = (long) (idx % SUB_COUNT + SUB_COUNT) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+}
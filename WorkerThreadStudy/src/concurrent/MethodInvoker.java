@@ -0,0 +1,187 @@
+package concurrent;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolved method of a SerialMethod, invoked through a MethodHandle instead of Method.invoke().
+ *
+ * Invokers are cached by class, method name and argument types, and shared by all
+ * SerialMethods/ParallelMethods, so the method lookup (including the scan of the
+ * declared methods) and the handle creation happen once per signature.
+ *
+ * Each invoker holds:
+ *  - the method as a handle of type (Object target, Object[] args)Object
+ *    (static methods ignore the target; void methods return null)
+ *  - the no-arg constructor of the class as a handle of type ()Object, used when
+ *    the SerialMethod has no target instance
+ *
+ * Exceptions thrown by the method or constructor are wrapped in an InvocationTargetException,
+ * the same as with reflection, so callers see the same exceptions as before.
+ *
+ * @author TPatel
+ */
+final class MethodInvoker {
+	private static final ConcurrentMap<Key, MethodInvoker> CACHE = new ConcurrentHashMap<Key, MethodInvoker>();
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private final Method method;
+	/** (Object, Object[])Object */
+	private final MethodHandle handle;
+	/** ()Object; null if the class has no no-arg constructor */
+	private final MethodHandle constructor;
+
+	private MethodInvoker(final Method method) throws IllegalAccessException {
+		this.method = method;
+		final int arity = method.getParameterTypes().length;
+		MethodHandle mh = LOOKUP.unreflect(method);
+		if (Modifier.isStatic(method.getModifiers())) {
+			mh = MethodHandles.dropArguments(mh, 0, Object.class);
+		}
+		handle = mh.asType(MethodType.genericMethodType(arity + 1)).asSpreader(Object[].class, arity);
+
+		MethodHandle ctor = null;
+		final Class<?> cls = method.getDeclaringClass();
+		if (!Modifier.isAbstract(cls.getModifiers()) && !cls.isInterface()) {
+			try {
+				final Constructor<?> c = cls.getDeclaredConstructor();
+				c.setAccessible(true);
+				ctor = LOOKUP.unreflectConstructor(c).asType(MethodType.genericMethodType(0));
+			} catch (NoSuchMethodException e) {
+				//only usable with a target instance
+			} catch (RuntimeException e) {
+				//not accessible; only usable with a target instance
+			}
+		}
+		constructor = ctor;
+	}
+
+	/**
+	 * Returns the (cached) invoker of the method of targetClass named methodName best matching the arguments:
+	 * the method declared with the exact argument classes, else the first one with the same number of parameters
+	 * @param targetClass
+	 * @param methodName
+	 * @param argTypes classes of the arguments
+	 * @return
+	 * @throws ParallelMethodException if no such method exists
+	 */
+	static MethodInvoker get(final Class<?> targetClass, final String methodName, final Class<?>[] argTypes) throws ParallelMethodException {
+		final Key key = new Key(targetClass, methodName, argTypes);
+		MethodInvoker invoker = CACHE.get(key);
+		if (invoker == null) {
+			invoker = create(find(targetClass, methodName, argTypes));
+			final MethodInvoker existing = CACHE.putIfAbsent(key, invoker);
+			if (existing != null) {
+				invoker = existing;
+			}
+		}
+		return invoker;
+	}
+
+	private static MethodInvoker create(final Method method) throws ParallelMethodException {
+		try {
+			return new MethodInvoker(method);
+		} catch (IllegalAccessException e) {
+			throw new ParallelMethodException("IllegalAccessException: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Searches for the method
+	 * @param targetClass
+	 * @param methodName
+	 * @param argTypes
+	 * @return
+	 * @throws ParallelMethodException
+	 */
+	private static Method find(final Class<?> targetClass, final String methodName, final Class<?>[] argTypes) throws ParallelMethodException {
+		Method found;
+		try {
+			found = targetClass.getDeclaredMethod(methodName, argTypes);
+			found.setAccessible(true);
+		} catch (SecurityException e) {
+			throw new ParallelMethodException("SecurityException: " + e.getMessage());
+		} catch (NoSuchMethodException e) {
+			found = null;
+			for (Method method : targetClass.getDeclaredMethods()) {
+				if (method.getName().equals(methodName) && argTypes.length == method.getParameterTypes().length) {
+					found = method;
+					found.setAccessible(true);
+					break;
+				}
+			}
+			if (found == null)
+				throw new ParallelMethodException("NoSuchMethodException: " + e.getMessage());
+		}
+		return found;
+	}
+
+	Method getMethod() {
+		return method;
+	}
+
+	/**
+	 * Invokes the method
+	 * @param target instance to invoke on; null to invoke on a new instance of the declaring class
+	 * @param args
+	 * @return the return value; null for void methods
+	 * @throws InvocationTargetException if the method (or constructor) threw
+	 * @throws InstantiationException if a new instance is needed and the class has no usable no-arg constructor
+	 */
+	Object invoke(final Object target, final Object[] args) throws InvocationTargetException, InstantiationException {
+		final Object instance = target != null || Modifier.isStatic(method.getModifiers()) ? target : newInstance();
+		try {
+			return (Object) handle.invokeExact(instance, args);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	private Object newInstance() throws InvocationTargetException, InstantiationException {
+		if (constructor == null) {
+			throw new InstantiationException(method.getDeclaringClass().getName());
+		}
+		try {
+			return (Object) constructor.invokeExact();
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	/**
+	 * Cache key: class, method name, argument classes
+	 */
+	private static final class Key {
+		private final Class<?> cls;
+		private final String name;
+		private final Class<?>[] argTypes;
+		private final int hash;
+
+		private Key(final Class<?> cls, final String name, final Class<?>[] argTypes) {
+			this.cls = cls;
+			this.name = name;
+			this.argTypes = argTypes;
+			this.hash = (cls.hashCode() * 31 + name.hashCode()) * 31 + Arrays.hashCode(argTypes);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return cls == other.cls && name.equals(other.name) && Arrays.equals(argTypes, other.argTypes);
+		}
+	}
+}
@@ -3,9 +3,16 @@ package concurrent;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * This class is an improvement upon TimerUtil.  Use this timing class instead.
@@ -21,21 +28,63 @@ import java.util.TreeMap;
  * 	timer.startCapture("finderX");
  * 	timer.endCapture("finderX");
  *
+ * The above take a stack trace on every call (microseconds).  For hot paths, register
+ * the capture point once and use its id; this costs two System.nanoTime() calls:
+ * 	private static final int FINDER_X = MethodTimer.registerCapture("finderX");
+ * 	timer.startCapture(FINDER_X);
+ * 	timer.endCapture(FINDER_X);
+ *
+ * Every capture point also keeps a latency histogram; toString() prints its
+ * p50/p90/p99/p99.9/max next to the totals.
+ *
+ * Sampling mode (no capture calls needed; ~1% overhead at the default interval):
+ * 	timer.startSampling(pool, MethodTimer.DEFAULT_SAMPLE_MILLIS);	//stacks of the pool's workers
+ * 	<run>
+ * 	timer.stopSampling();
+ * 	timer.printSampledTimings();	//call tree, indented like the timings
+ * 	String flames = timer.getCollapsedStacks();	//for flamegraph.pl
+ *
+ * A single timer may be shared by all threads (e.g. all WorkerThreads): each thread records
+ * into its own timings, without locks, and toString() merges them, so the consolidated
+ * timings can be printed while the threads are still running.  The timings of threads that
+ * died are merged into one at the next print, so short-lived threads do not accumulate.
+ *
  * @author TPatel
  */
 public class MethodTimer {
 	private final SimpleDateFormat sdf = new SimpleDateFormat("MMM dd HH:mm:ss");
 
-	private HashMap<String, TimeObject> openMethods = new HashMap<String, TimeObject>();
-	private TreeMap<String, TimeObject> timingsMap = new TreeMap<String, TimeObject>(); 
+	/** timings of the calling thread */
+	private final ThreadLocal<ThreadTimings> localTimings = new ThreadLocal<ThreadTimings>() {
+		protected ThreadTimings initialValue() {
+			final ThreadTimings timings = new ThreadTimings(Thread.currentThread());
+			allTimings.add(timings);
+			return timings;
+		}
+	};
+	/** timings of every live thread that used this timer; merged on read */
+	private final ConcurrentLinkedQueue<ThreadTimings> allTimings = new ConcurrentLinkedQueue<ThreadTimings>();
+	/** timings of the threads that died, merged; replaced (never modified) so a merge in progress stays consistent */
+	private volatile ThreadTimings retired;
 	
-	private MethodTimer[] otherTimers;
+	private volatile MethodTimer[] otherTimers;
+
+	/** default interval between two stack samples */
+	public static final long DEFAULT_SAMPLE_MILLIS = 10;
+	/** profiler of the sampling mode; null if never started */
+	private volatile StackSampler sampler;
 
-	private static int IGNORE_TRACE_LEVEL = 0;
+	/** ids of the registered capture points, shared by all timers so they can be consolidated */
+	private static final ConcurrentHashMap<String, Integer> CAPTURE_IDS = new ConcurrentHashMap<String, Integer>();
+	/** registered capture point names, indexed by id */
+	private static volatile String[] captureNames = new String[0];
+
+	private static volatile int IGNORE_TRACE_LEVEL = 0;
 	
 	private static final long START_TIME = System.currentTimeMillis();
-	private long elapsedTime;
-	private long overheadTime;
+	private volatile long elapsedTime;
+	/** time (ns) spent in the stack trace based captures */
+	private final LongAdder overheadTime = new LongAdder();
 	
 	private boolean debug;
 	
@@ -78,9 +127,9 @@ public class MethodTimer {
 		
 		StringBuilder str = new StringBuilder(NEW_LINE);
 		TimeObject to;
-		final TreeMap<String, TimeObject> consoldatedTimerMap = otherTimers == null ? timingsMap : getConsolidatedTimings();
+		final TreeMap<String, TimeObject> consoldatedTimerMap = getConsolidatedTimings();
 		
-		str.append("Total time: " + (elapsedTime/1000) + "s (Overhead: " + overheadTime + "ms)");
+		str.append("Total time: " + (elapsedTime/1000) + "s (Overhead: " + getOverheadTime() + "ms)");
 		
 		final TreeMap<String, TimeObject> sortedMap = new TreeMap<String, TimeObject>();
 		for (String key : consoldatedTimerMap.keySet()) {
@@ -92,10 +141,240 @@ public class MethodTimer {
 			to = sortedMap.get(key);
 			str.append(NEW_LINE).append(getSpaces(to.level, to.key.contains(CAPTURE_SEPARATOR)) + to);
 		}
+
+		//registered capture points (no call hierarchy), consolidated the same way
+		final String[] names = captureNames;
+		final long[] totals = new long[names.length];
+		final long[] counts = new long[names.length];
+		final LatencyHistogram[] histograms = new LatencyHistogram[names.length];
+		for (int id = 0; id < names.length; id++) {
+			histograms[id] = new LatencyHistogram();
+		}
+		for (ThreadTimings timings : getAllTimings()) {
+			timings.addCaptures(totals, counts, histograms);
+		}
+		for (int id = 0; id < names.length; id++) {
+			final long total = totals[id];
+			final long qty = counts[id];
+			if (qty > 0) {
+				str.append(NEW_LINE).append(names[id]).append(": ").append(qty).append("/").append(total/1000000000)
+						.append(" [").append(elapsedTime == 0 ? 0 : total/10000/elapsedTime).append("%]")
+						.append(" avg ").append(LatencyHistogram.format(total/qty)).append(" ").append(histograms[id]);
+			}
+		}
 		
 		return str.toString();
 	}
 
+	/**
+	 * Registers a capture point for use with startCapture(int)/endCapture(int).
+	 * Registering the same name again returns the same id.
+	 * @param capturePoint name printed with the timings
+	 * @return id of the capture point
+	 */
+	public static int registerCapture(final String capturePoint) {
+		final Integer id = CAPTURE_IDS.get(capturePoint);
+		if (id != null) {
+			return id.intValue();
+		}
+		synchronized (CAPTURE_IDS) {
+			Integer newId = CAPTURE_IDS.get(capturePoint);
+			if (newId == null) {
+				final String[] names = new String[captureNames.length + 1];
+				System.arraycopy(captureNames, 0, names, 0, captureNames.length);
+				names[captureNames.length] = capturePoint;
+				newId = Integer.valueOf(captureNames.length);
+				captureNames = names;
+				CAPTURE_IDS.put(capturePoint, newId);
+			}
+			return newId.intValue();
+		}
+	}
+
+	/**
+	 * Starts timing a registered capture point (see registerCapture()); an unregistered id is logged and ignored
+	 * @param captureId
+	 */
+	public void startCapture(final int captureId) {
+		if (!isRegistered(captureId)) {
+			return;
+		}
+		final ThreadTimings timings = localTimings.get();
+		if (captureId >= timings.captureStarts.length) {
+			timings.growCaptures(captureId);
+		}
+		if (timings.captureOpen[captureId]) {
+			log(LEVEL_WARN, captureNames[captureId] + " was not ended; timing not initiated");
+			return;
+		}
+		timings.captureOpen[captureId] = true;
+		timings.captureStarts[captureId] = System.nanoTime();
+	}
+
+	/**
+	 * Ends timing a registered capture point
+	 * @param captureId
+	 */
+	public void endCapture(final int captureId) {
+		final long end = System.nanoTime();
+		if (!isRegistered(captureId)) {
+			return;
+		}
+		final ThreadTimings timings = localTimings.get();
+		if (captureId >= timings.captureOpen.length || !timings.captureOpen[captureId]) {
+			log(LEVEL_WARN, captureNames[captureId] + " was not started; timing not captured");
+			return;
+		}
+		timings.captureOpen[captureId] = false;
+		//single writer; lazySet publishes to readers without a full fence
+		addCapture(timings, captureId, end - timings.captureStarts[captureId]);
+	}
+
+	/**
+	 * Records a timing measured by the caller for a registered capture point
+	 * @param captureId
+	 * @param nanos
+	 */
+	public void recordCapture(final int captureId, final long nanos) {
+		if (!isRegistered(captureId)) {
+			return;
+		}
+		final ThreadTimings timings = localTimings.get();
+		if (captureId >= timings.captureStarts.length) {
+			timings.growCaptures(captureId);
+		}
+		addCapture(timings, captureId, nanos);
+	}
+
+	/**
+	 * Returns true if the id was returned by registerCapture(); logs a warning otherwise
+	 * (the id would index past the capture points and grow the thread's arrays for nothing)
+	 * @param captureId
+	 * @return
+	 */
+	private boolean isRegistered(final int captureId) {
+		if (captureId >= 0 && captureId < captureNames.length) {
+			return true;
+		}
+		log(LEVEL_WARN, "Capture id " + captureId + " is not registered; timing not captured");
+		return false;
+	}
+
+	/**
+	 * Adds the timing to the thread's totals of the capture point
+	 * @param timings
+	 * @param captureId
+	 * @param elapsed
+	 */
+	private void addCapture(final ThreadTimings timings, final int captureId, final long elapsed) {
+		final AtomicLongArray totals = timings.captureTotals;
+		final AtomicLongArray counts = timings.captureCounts;
+		totals.lazySet(captureId, totals.get(captureId) + elapsed);
+		counts.lazySet(captureId, counts.get(captureId) + 1);
+		timings.captureHistograms[captureId].record(elapsed);
+	}
+
+	/**
+	 * Returns the latency histograms of all capture points, merged across threads
+	 * (snapshot; keyed by capture point or method name)
+	 * @return
+	 */
+	public TreeMap<String, LatencyHistogram> getHistograms() {
+		final TreeMap<String, LatencyHistogram> histMap = new TreeMap<String, LatencyHistogram>();
+		for (TimeObject to : getConsolidatedTimings().values()) {
+			LatencyHistogram hist = histMap.get(to.methodName);
+			if (hist == null) {
+				hist = new LatencyHistogram();
+				histMap.put(to.methodName, hist);
+			}
+			hist.add(to.histogram);
+		}
+
+		final String[] names = captureNames;
+		final LatencyHistogram[] histograms = new LatencyHistogram[names.length];
+		for (int id = 0; id < names.length; id++) {
+			histograms[id] = new LatencyHistogram();
+		}
+		for (ThreadTimings timings : getAllTimings()) {
+			timings.addCaptures(new long[names.length], new long[names.length], histograms);
+		}
+		for (int id = 0; id < names.length; id++) {
+			if (histograms[id].getCount() > 0) {
+				histMap.put(names[id], histograms[id]);
+			}
+		}
+		return histMap;
+	}
+
+	/**
+	 * Starts sampling the stacks of the pool's workers (the current ones at each sample)
+	 * every intervalMillis; replaces the samples of a previous sampling
+	 * @param pool
+	 * @param intervalMillis
+	 */
+	public synchronized void startSampling(final WorkerThreadPool pool, final long intervalMillis) {
+		startSampling(new StackSampler(pool, null, intervalMillis));
+	}
+
+	/**
+	 * Starts sampling the stacks of the threads every intervalMillis
+	 * @param threads
+	 * @param intervalMillis
+	 */
+	public synchronized void startSampling(final Thread[] threads, final long intervalMillis) {
+		startSampling(new StackSampler(null, threads.clone(), intervalMillis));
+	}
+
+	private void startSampling(final StackSampler newSampler) {
+		stopSampling();
+		sampler = newSampler;
+		newSampler.start();
+	}
+
+	/**
+	 * Stops sampling; the samples taken remain available
+	 */
+	public synchronized void stopSampling() {
+		if (sampler != null) {
+			sampler.stop();
+		}
+	}
+
+	/**
+	 * Returns the sampled call tree, indented like toString():
+	 * method: samples/estimated seconds [% of samples]
+	 * @return
+	 */
+	public String getSampledTimings() {
+		final StackSampler s = sampler;
+		return s == null ? NEW_LINE + "Not sampled" : s.getCallTree(NEW_LINE);
+	}
+
+	/**
+	 * Returns the samples as collapsed stacks, one "frame;frame;frame count" line per distinct stack
+	 * (input of flamegraph.pl and similar flame graph tools)
+	 * @return
+	 */
+	public String getCollapsedStacks() {
+		final StackSampler s = sampler;
+		return s == null ? BLANK : s.getCollapsedStacks();
+	}
+
+	/**
+	 * Prints the sampled call tree at the DEBUG level log
+	 */
+	public void printSampledTimings() {
+		log(getSampledTimings());
+	}
+
+	/**
+	 * Returns time (ms) spent taking the stack trace based timings, across all threads
+	 * @return
+	 */
+	public long getOverheadTime() {
+		return overheadTime.sum() / 1000000;
+	}
+
 	public void startCapture() {
 		start(BLANK);
 	}
@@ -113,7 +392,7 @@ public class MethodTimer {
 	}
 
 	/**
-	 * Use to add timers from workers/threads;
+	 * Use to add timers from workers/threads (not needed when the threads share this timer);
 	 * Method may be reused to reset the timers within this object
 	 * @param timers
 	 */
@@ -227,24 +506,26 @@ public class MethodTimer {
 	 */
 	public void log(final int logLevel, final String str, final int logType) {
 		if (loggingEnabled && out != null && logLevel >= this.logLevel) {
-			switch (logType) {
-				case LOG_BEGIN:
-				case LOG_ALL:
-					final long currTime = System.currentTimeMillis();
-					out.print(
-							sdf.format(new Date(currTime)) + 
-							" +" + 
-							df.format((currTime - START_TIME)/(1000.0*60)) + 
-							" " +
-							LEVEL_ARR[logLevel] + ": "
-							);
-				case LOG_MIDDLE:
-				case LOG_END:
-					out.print(str);
-					break;
-			}
-			if (logType == LOG_ALL || logType == LOG_END) {
-				out.println();
+			synchronized (sdf) {	//timer may be shared by threads; formats are not thread safe
+				switch (logType) {
+					case LOG_BEGIN:
+					case LOG_ALL:
+						final long currTime = System.currentTimeMillis();
+						out.print(
+								sdf.format(new Date(currTime)) + 
+								" +" + 
+								df.format((currTime - START_TIME)/(1000.0*60)) + 
+								" " +
+								LEVEL_ARR[logLevel] + ": "
+								);
+					case LOG_MIDDLE:
+					case LOG_END:
+						out.print(str);
+						break;
+				}
+				if (logType == LOG_ALL || logType == LOG_END) {
+					out.println();
+				}
 			}
 		}
 	}
@@ -363,7 +644,8 @@ public class MethodTimer {
 	 */
 	private void start(final String capturePoint) {
 		
-		final long start = System.currentTimeMillis();
+		final long start = System.nanoTime();
+		final ThreadTimings timings = localTimings.get();
 		
 		//Get the snapshot of the stack trace
 		final StackTraceElement[] traceArr = Thread.currentThread().getStackTrace();
@@ -376,20 +658,20 @@ public class MethodTimer {
 		final String key = getKey(traceArr, capturePoint, false);
 
 		//There should not be any open timings with the same key
-		if (openMethods.get(key) == null) {
-			TimeObject timeObj = timingsMap.get(key);
+		if (timings.openMethods.get(key) == null) {
+			TimeObject timeObj = timings.timingsMap.get(key);
 			if (timeObj == null) {
 				//create a new timing object
 				timeObj = new TimeObject(key, getMethName(traceArr) + (capturePoint.equals(BLANK) ? BLANK : "_" + capturePoint), getLevel(traceArr), getKey(traceArr, capturePoint, true));
-				timingsMap.put(key, timeObj);
+				timings.timingsMap.put(key, timeObj);
 			}
 			timeObj.start();
-			openMethods.put(key, timeObj);
+			timings.openMethods.put(key, timeObj);
 			if (debug) log("Starting " + key);
 		} else {
 			log(LEVEL_WARN, key + " was not ended; timing not initiated; check line " + traceArr[IGNORE_TRACE_LEVEL].getClassName() + " " + traceArr[IGNORE_TRACE_LEVEL].getLineNumber());
 		}
-		overheadTime += System.currentTimeMillis() - start;
+		overheadTime.add(System.nanoTime() - start);
 	}
 
 	/**
@@ -397,13 +679,13 @@ public class MethodTimer {
 	 * @param capturePoint
 	 */
 	private void end(final String capturePoint) {
-		final long start = System.currentTimeMillis();
+		final long start = System.nanoTime();
 
 		//Get the snapshot of the stack trace
 		final StackTraceElement[] traceArr = Thread.currentThread().getStackTrace();
 		
 		final String key = getKey(traceArr, capturePoint, false);
-		final TimeObject timeObj = openMethods.remove(key);
+		final TimeObject timeObj = localTimings.get().openMethods.remove(key);
 		
 		//There should be an open timings with the same key
 		if (timeObj == null) {
@@ -411,7 +693,7 @@ public class MethodTimer {
 		} else {
 			timeObj.end();
 		}
-		overheadTime += System.currentTimeMillis() - start;
+		overheadTime.add(System.nanoTime() - start);
 	}
 
 	/**
@@ -422,16 +704,18 @@ public class MethodTimer {
 	private class TimeObject {
 		/** Value used to refer to this object */
 		private String key;
-		/** Number of times timing was taken */
-		private int qty;
+		/** Number of times timing was taken (written by the owning thread only) */
+		private volatile int qty;
 		/** Method name of timing event */
 		private String methodName;
-		/** Total time of timing block (in ms) */
-		private long totalTime;
+		/** Total time of timing block (in ns) */
+		private volatile long totalTime;
 		/** Level of method call (the deeper the call, the higher the value) */
 		private int level;
 		/** Snapshot of the time before the timing block was called; used to calculate block timing */
 		private long startTime;
+		/** Distribution of the block timings */
+		private final LatencyHistogram histogram = new LatencyHistogram();
 		
 		private String lineKey;
 		
@@ -443,67 +727,200 @@ public class MethodTimer {
 		}
 		
 		private void start() {
-			startTime = System.currentTimeMillis();
+			startTime = System.nanoTime();
 		}
 
 		private void end() {
-			totalTime += (System.currentTimeMillis() - startTime);
+			final long elapsed = System.nanoTime() - startTime;
+			totalTime += elapsed;
 			qty++;
+			histogram.record(elapsed);
 		}
 		
 		public String toString() {
 			if (elapsedTime == 0) {
 				return key + " elapsed time = 0";
 			}
-			return methodName + ": " + qty + "/" + (totalTime/1000) + " [" + (totalTime*100/elapsedTime) + "%]";
+			return methodName + ": " + qty + "/" + (totalTime/1000000000) + " [" + (totalTime/10000/elapsedTime) + "%] " + histogram;
 		}
 		
 		private void add(final TimeObject to) {
 			this.qty += to.qty;
 			this.totalTime += to.totalTime;
+			this.histogram.add(to.histogram);
 		}
 
 		private TimeObject copy() {
 			TimeObject tObj = new TimeObject(key, methodName, level, lineKey);
 			tObj.qty = this.qty;
 			tObj.totalTime = this.totalTime;
+			tObj.histogram.add(this.histogram);
 			return tObj;
 		}
 	}
 
 	/**
-	 * 
+	 * Returns the timings of every thread that used this timer or one of the consolidated timers
+	 * @return
+	 */
+	private ArrayList<ThreadTimings> getAllTimings() {
+		final ArrayList<ThreadTimings> list = getOwnTimings();
+		final MethodTimer[] others = otherTimers;
+		if (others != null) {
+			for (MethodTimer timer : others) {
+				if (timer != this) {
+					list.addAll(timer.getOwnTimings());
+				}
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the timings of the live threads and the retired ones, after moving the timings
+	 * of the threads that died into the retired ones (so the memory used does not grow with
+	 * the number of threads that ever used the timer)
+	 * @return
+	 */
+	private ArrayList<ThreadTimings> getOwnTimings() {
+		synchronized (allTimings) {
+			ThreadTimings sum = null;
+			for (Iterator<ThreadTimings> it = allTimings.iterator(); it.hasNext(); ) {
+				final ThreadTimings timings = it.next();
+				if (!timings.owner.isAlive()) {
+					if (sum == null) {
+						sum = new ThreadTimings(null);
+						if (retired != null) {
+							retired.addTo(sum);
+						}
+					}
+					timings.addTo(sum);
+					it.remove();
+				}
+			}
+			if (sum != null) {
+				retired = sum;
+			}
+			final ArrayList<ThreadTimings> list = new ArrayList<ThreadTimings>(allTimings);
+			if (retired != null) {
+				list.add(retired);
+			}
+			return list;
+		}
+	}
+
+	/**
+	 * Merges the timings of all threads (snapshot; the threads may still be running)
 	 * @return
 	 */
 	private TreeMap<String, TimeObject> getConsolidatedTimings() {
-		final long start = System.currentTimeMillis();
+		final long start = System.nanoTime();
 
 		TreeMap<String, TimeObject> totalTree = new TreeMap<String, TimeObject>();
 		
-		TimeObject value;
-		for (String key : timingsMap.keySet()) {
-			value = timingsMap.get(key);
-			totalTree.put(key, value.copy());
-		}
-		
-		if (otherTimers != null) {
-			TimeObject totalTimeObj, timeObj;
-			for (MethodTimer timer : otherTimers) {
-				for (String key : timer.timingsMap.keySet()) {
-					timeObj = timer.timingsMap.get(key);
-					
-					totalTimeObj = totalTree.get(key);
-					if (totalTimeObj == null) {
-						totalTree.put(key, timeObj.copy());	//copy of obj is not needed, but copying for simplicity
-					} else {
-						totalTimeObj.add(timeObj);
-					}
+		TimeObject totalTimeObj;
+		for (ThreadTimings timings : getAllTimings()) {
+			for (TimeObject timeObj : timings.timingsMap.values()) {
+				totalTimeObj = totalTree.get(timeObj.key);
+				if (totalTimeObj == null) {
+					totalTree.put(timeObj.key, timeObj.copy());
+				} else {
+					totalTimeObj.add(timeObj);
 				}
 			}
 		}
 		
-		overheadTime += System.currentTimeMillis() - start;
+		overheadTime.add(System.nanoTime() - start);
 		return totalTree;
 	}
 
+	/**
+	 * Timings recorded by one thread.  Only the owning thread writes; others read
+	 * timingsMap and the capture totals when merging.
+	 */
+	private final class ThreadTimings {
+		/** thread recording the timings; null for the retired timings */
+		private final Thread owner;
+		private final HashMap<String, TimeObject> openMethods = new HashMap<String, TimeObject>();
+		private final ConcurrentHashMap<String, TimeObject> timingsMap = new ConcurrentHashMap<String, TimeObject>();
+
+		/** per registered capture point (indexed by id): start of the open timing, total time (ns) and count */
+		private long[] captureStarts = new long[0];
+		private boolean[] captureOpen = new boolean[0];
+		private volatile AtomicLongArray captureTotals = new AtomicLongArray(0);
+		private volatile AtomicLongArray captureCounts = new AtomicLongArray(0);
+		private volatile LatencyHistogram[] captureHistograms = new LatencyHistogram[0];
+
+		private ThreadTimings(final Thread owner) {
+			this.owner = owner;
+		}
+
+		/**
+		 * Grows the per capture point arrays to hold the id (and any other registered capture point)
+		 * @param captureId
+		 */
+		private void growCaptures(final int captureId) {
+			final int size = Math.max(captureId + 1, captureNames.length);
+			captureStarts = Arrays.copyOf(captureStarts, size);
+			captureOpen = Arrays.copyOf(captureOpen, size);
+			captureTotals = copyOf(captureTotals, size);
+			captureCounts = copyOf(captureCounts, size);
+			final LatencyHistogram[] histograms = Arrays.copyOf(captureHistograms, size);
+			for (int i = captureHistograms.length; i < size; i++) {
+				histograms[i] = new LatencyHistogram();
+			}
+			captureHistograms = histograms;
+		}
+
+		private AtomicLongArray copyOf(final AtomicLongArray arr, final int size) {
+			final AtomicLongArray copy = new AtomicLongArray(size);
+			for (int i = 0; i < arr.length(); i++) {
+				copy.set(i, arr.get(i));
+			}
+			return copy;
+		}
+
+		/**
+		 * Adds the capture point totals/counts/histograms of this thread to the arrays
+		 * @param totals
+		 * @param counts
+		 * @param histograms
+		 */
+		private void addCaptures(final long[] totals, final long[] counts, final LatencyHistogram[] histograms) {
+			final AtomicLongArray threadCounts = captureCounts;
+			final AtomicLongArray threadTotals = captureTotals;
+			final LatencyHistogram[] threadHistograms = captureHistograms;
+			final int len = Math.min(totals.length, Math.min(threadHistograms.length, Math.min(threadCounts.length(), threadTotals.length())));
+			for (int i = 0; i < len; i++) {
+				counts[i] += threadCounts.get(i);
+				totals[i] += threadTotals.get(i);
+				histograms[i].add(threadHistograms[i]);
+			}
+		}
+
+		/**
+		 * Adds all the timings of this thread to sum (not published yet; see getOwnTimings)
+		 * @param sum
+		 */
+		private void addTo(final ThreadTimings sum) {
+			for (TimeObject timeObj : timingsMap.values()) {
+				final TimeObject sumObj = sum.timingsMap.get(timeObj.key);
+				if (sumObj == null) {
+					sum.timingsMap.put(timeObj.key, timeObj.copy());
+				} else {
+					sumObj.add(timeObj);
+				}
+			}
+			final int len = captureHistograms.length;
+			if (len > sum.captureHistograms.length) {
+				sum.growCaptures(len - 1);
+			}
+			for (int i = 0; i < len; i++) {
+				sum.captureTotals.set(i, sum.captureTotals.get(i) + captureTotals.get(i));
+				sum.captureCounts.set(i, sum.captureCounts.get(i) + captureCounts.get(i));
+				sum.captureHistograms[i].add(captureHistograms[i]);
+			}
+		}
+	}
+
 }
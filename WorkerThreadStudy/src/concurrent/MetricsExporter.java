@@ -0,0 +1,238 @@
+package concurrent;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Exposes live metrics of worker pools and timers while the job runs:
+ *  - over JMX: a WorkerPoolMetrics MBean per pool (concurrent:type=WorkerThreadPool,name=<name>)
+ *  - over HTTP: GET /metrics returns every pool and timer in the Prometheus text format;
+ *    the latency histograms are exported as summaries (quantiles 0.5/0.9/0.99/0.999);
+ *    the endpoint listens on the loopback interface unless a host is given
+ *
+ * To use:
+ *   MetricsExporter exporter = new MetricsExporter();
+ *   exporter.register("myjob", pool);
+ *   exporter.register("finder", methodTimer);	//optional; timer shared by the tasks
+ *   exporter.startHttp(9404);
+ *   <run>
+ *   exporter.stop();
+ *
+ * @author TPatel
+ */
+public final class MetricsExporter {
+	private static final String DOMAIN = "concurrent";
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	private final Map<String, WorkerPoolMetrics> pools = new ConcurrentHashMap<String, WorkerPoolMetrics>();
+	private final Map<String, MethodTimer> timers = new ConcurrentHashMap<String, MethodTimer>();
+	private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+	private HttpServer server;
+	private ExecutorService httpExecutor;
+
+	/**
+	 * Registers the pool (MBean and /metrics); its task run times are exported as timer name
+	 * @param name
+	 * @param pool
+	 * @throws JMException if the MBean could not be registered (e.g. name in use)
+	 */
+	public void register(final String name, final WorkerThreadPool pool) throws JMException {
+		final WorkerPoolMetrics metrics = new WorkerPoolMetrics(pool);
+		mbeanServer.registerMBean(metrics, objectName(name));
+		pools.put(name, metrics);
+		timers.put(name, pool.getTaskTimer());
+	}
+
+	/**
+	 * Registers a timer; the histograms of its capture points are exported on /metrics
+	 * @param name
+	 * @param timer
+	 */
+	public void register(final String name, final MethodTimer timer) {
+		timers.put(name, timer);
+	}
+
+	/**
+	 * Starts the HTTP endpoint on the loopback interface (one daemon thread)
+	 * @param port
+	 * @throws IOException
+	 */
+	public void startHttp(final int port) throws IOException {
+		startHttp(InetAddress.getLoopbackAddress().getHostAddress(), port);
+	}
+
+	/**
+	 * Starts the HTTP endpoint (one daemon thread)
+	 * @param host interface to listen on (e.g. the host name a remote scraper uses; "0.0.0.0" for all)
+	 * @param port
+	 * @throws IOException
+	 */
+	public synchronized void startHttp(final String host, final int port) throws IOException {
+		if (server != null) {
+			throw new IllegalStateException("Already started on port " + server.getAddress().getPort());
+		}
+		server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		server.createContext("/metrics", new HttpHandler() {
+			public void handle(final HttpExchange exchange) throws IOException {
+				final byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				final OutputStream os = exchange.getResponseBody();
+				try {
+					os.write(body);
+				} finally {
+					os.close();
+				}
+			}
+		});
+		httpExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(final Runnable r) {
+				final Thread t = new Thread(r, "MyMetricsHttp");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		server.setExecutor(httpExecutor);
+		server.start();
+	}
+
+	/**
+	 * Returns the port of the HTTP endpoint (useful when started on port 0)
+	 * @return -1 if not started
+	 */
+	public synchronized int getPort() {
+		return server == null ? -1 : server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops the HTTP endpoint and unregisters the MBeans
+	 */
+	public synchronized void stop() {
+		if (server != null) {
+			server.stop(0);
+			httpExecutor.shutdownNow();
+			server = null;
+		}
+		for (String name : pools.keySet()) {
+			try {
+				mbeanServer.unregisterMBean(objectName(name));
+			} catch (JMException e) {
+				//already gone
+			}
+		}
+		pools.clear();
+		timers.clear();
+	}
+
+	/**
+	 * Returns the current metrics in the Prometheus text format
+	 * @return
+	 */
+	public String scrape() {
+		final StringBuilder sb = new StringBuilder(1024);
+		if (!pools.isEmpty()) {
+			gauge(sb, "worker_pool_queue_depth", "Tasks waiting in the queue");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_queue_depth", "pool", e.getKey(), e.getValue().getQueueDepth());
+			}
+			gauge(sb, "worker_pool_idle_tasks", "Recycled task objects available");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_idle_tasks", "pool", e.getKey(), e.getValue().getIdleTasks());
+			}
+			gauge(sb, "worker_pool_workers", "Worker threads");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_workers", "pool", e.getKey(), e.getValue().getWorkers());
+			}
+			gauge(sb, "worker_pool_busy_workers", "Workers running a task");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_busy_workers", "pool", e.getKey(), e.getValue().getBusyWorkers());
+			}
+			gauge(sb, "worker_pool_tasks_in_flight", "Tasks queued or running");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_tasks_in_flight", "pool", e.getKey(), e.getValue().getTasksInFlight());
+			}
+			header(sb, "worker_pool_tasks_completed_total", "Tasks finished, successfully or not", "counter");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_tasks_completed_total", "pool", e.getKey(), e.getValue().getTasksCompleted());
+			}
+			gauge(sb, "worker_pool_connections_open", "Open connections");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_connections_open", "pool", e.getKey(), e.getValue().getConnectionsOpen());
+			}
+			gauge(sb, "worker_pool_connections_in_use", "Connections held by workers");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_connections_in_use", "pool", e.getKey(), e.getValue().getConnectionsInUse());
+			}
+			gauge(sb, "worker_pool_dead_letters", "Tasks given up on after their retries");
+			for (Map.Entry<String, WorkerPoolMetrics> e : pools.entrySet()) {
+				sample(sb, "worker_pool_dead_letters", "pool", e.getKey(), e.getValue().getDeadLetters());
+			}
+		}
+
+		if (!timers.isEmpty()) {
+			header(sb, "method_timer_latency_seconds", "Run time of the timer capture points", "summary");
+			for (Map.Entry<String, MethodTimer> e : timers.entrySet()) {
+				for (Map.Entry<String, LatencyHistogram> h : e.getValue().getHistograms().entrySet()) {
+					final LatencyHistogram hist = h.getValue();
+					final String labels = "timer=\"" + escape(e.getKey()) + "\",capture=\"" + escape(h.getKey()) + "\"";
+					for (double q : QUANTILES) {
+						sb.append("method_timer_latency_seconds{").append(labels).append(",quantile=\"").append(q).append("\"} ")
+								.append(hist.getValueAtPercentile(q * 100) / 1e9).append('\n');
+					}
+					sb.append("method_timer_latency_seconds_sum{").append(labels).append("} ").append(hist.getTotal() / 1e9).append('\n');
+					sb.append("method_timer_latency_seconds_count{").append(labels).append("} ").append(hist.getCount()).append('\n');
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	private static void gauge(final StringBuilder sb, final String metric, final String help) {
+		header(sb, metric, help, "gauge");
+	}
+
+	private static void header(final StringBuilder sb, final String metric, final String help, final String type) {
+		sb.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(final StringBuilder sb, final String metric, final String label, final String value, final double sample) {
+		sb.append(metric).append('{').append(label).append("=\"").append(escape(value)).append("\"} ");
+		if (sample == Math.rint(sample)) {
+			sb.append((long) sample);
+		} else {
+			sb.append(sample);
+		}
+		sb.append('\n');
+	}
+
+	/**
+	 * Escapes a label value (backslash, quote and new line)
+	 * @param value
+	 * @return
+	 */
+	private static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private static ObjectName objectName(final String name) throws JMException {
+		return new ObjectName(DOMAIN + ":type=WorkerThreadPool,name=" + ObjectName.quote(name));
+	}
+}
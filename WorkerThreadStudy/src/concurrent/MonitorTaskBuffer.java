@@ -0,0 +1,174 @@
+package concurrent;
+
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * The original task buffer: a LinkedList guarded by its own monitor.
+ * Every put/take acquires the monitor and wakes all waiting threads.
+ *
+ * @author TPatel
+ */
+class MonitorTaskBuffer implements TaskBuffer {
+	/** size of task queue before overflow is triggered */
+	private final int queueSize;
+	/** number of tasks to drain down to before allowing for tasks to resume queuing */
+	private final double lowWater;
+
+	/** the queue that holds the pending tasks */
+	protected final Queue<BaseWorkTask> mQueue;
+
+	/** flag to denote that complete shutdown has been requested */
+	private boolean mIsShutdown = false;
+	/** flag to denote that task queue reached overflow size */
+	private boolean isOverFlow = false;
+
+	MonitorTaskBuffer(final int queueSize, final double produceThreshhold) {
+		this(queueSize, produceThreshhold, new LinkedList<BaseWorkTask>());
+	}
+
+	protected MonitorTaskBuffer(final int queueSize, final double produceThreshhold, final Queue<BaseWorkTask> queue) {
+		this.queueSize = queueSize;
+		this.lowWater = produceThreshhold * queueSize;
+		this.mQueue = queue;
+	}
+
+	public boolean isShutdown() {
+		synchronized (mQueue) {
+			return mIsShutdown;
+		}
+	}
+
+	public void shutdown() {
+		synchronized (mQueue) {
+			mIsShutdown = true;
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Add task to queue.  If overflow point reached, then block until queue
+	 * reaches lower threshhold.
+	 * @param task
+	 */
+	public void put(final BaseWorkTask task) {
+		synchronized (mQueue) {
+			awaitOverflow();
+
+			//Ojo, por que el unico que agrega elementos es este
+			queued(task);
+			mQueue.add(task);
+
+			//wake all waiting workers
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Adds all the tasks under a single monitor acquisition
+	 * @param tasks
+	 */
+	public void putAll(final Collection<? extends BaseWorkTask> tasks) {
+		synchronized (mQueue) {
+			awaitOverflow();
+			for (BaseWorkTask task : tasks) {
+				queued(task);
+			}
+			mQueue.addAll(tasks);
+			mQueue.notifyAll();
+		}
+	}
+
+	/**
+	 * Called for each task just before it is added to the queue.  Must hold the monitor.
+	 * @param task
+	 */
+	protected void queued(final BaseWorkTask task) {
+		//nothing to record
+	}
+
+	/**
+	 * If overflow point reached, then block until queue reaches lower threshhold.
+	 * Must hold the monitor.
+	 */
+	private void awaitOverflow() {
+		if (mQueue.size() > queueSize) {	//check if threshold reached
+			isOverFlow = true;
+			try {
+				//wait for dequeue events since queue is full
+				mQueue.wait();
+				//Thread.sleep(10000);	//do not use .sleep (too much overhead)
+			} catch (InterruptedException e) {
+				//Here could be totally WRONG swallow this exception
+				e.printStackTrace();
+			}
+		}
+	}
+
+	public void register(final Thread worker) {
+		//workers share the buffer; nothing to track
+	}
+
+	public void unregister(final Thread worker) {
+		//workers share the buffer; nothing to track
+	}
+
+	public int size() {
+		return mQueue.size();
+	}
+
+	public BaseWorkTask take() throws InterruptedException {
+		synchronized (mQueue) {
+			if (!awaitTask()) {
+				return null;
+			}
+			final BaseWorkTask result = mQueue.poll();
+			checkLowWater();
+			return result;
+		}
+	}
+
+	public int takeBatch(final List<BaseWorkTask> batch, final int max) throws InterruptedException {
+		synchronized (mQueue) {
+			if (!awaitTask()) {
+				return 0;
+			}
+			int count = 0;
+			while (count < max && !mQueue.isEmpty()) {
+				batch.add(mQueue.poll());
+				count++;
+			}
+			checkLowWater();
+			return count;
+		}
+	}
+
+	/**
+	 * Waits until the queue has a task.  Must hold the monitor.
+	 * @return false if the queue is empty and shutdown was requested
+	 * @throws InterruptedException
+	 */
+	private boolean awaitTask() throws InterruptedException {
+		//if there are no more tasks in the queue, wait...
+		while (!mIsShutdown && mQueue.isEmpty()) {
+			mQueue.wait();
+		}
+		if (mQueue.isEmpty()) {
+			isOverFlow = false;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * If low threshhold reached, signal producer to add tasks.  Must hold the monitor.
+	 */
+	private void checkLowWater() {
+		if (isOverFlow && mQueue.size() <= lowWater) {
+			isOverFlow = false;
+			mQueue.notifyAll();	//in case maxThreshhold thread waiting;  moved from outside immediate if statement to here
+		}
+	}
+}
@@ -0,0 +1,141 @@
+package concurrent;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * Bounded, lock-free multi-producer/multi-consumer ring buffer.
+ *
+ * Each slot carries a sequence number which tells producers/consumers whether the
+ * slot is free for the current lap (D. Vyukov's bounded MPMC queue).  The head and tail
+ * cursors sit on their own cache lines and the slot sequences are spread one per line,
+ * so producers and consumers do not invalidate each other's lines.
+ *
+ * offer()/poll() never block; callers decide how to wait.
+ *
+ * @author TPatel
+ */
+final class MpmcRing<E> extends MpmcRingCursors {
+	/** distance (in longs) between two slot sequences; 8 longs = one 64 byte cache line */
+	private static final int SEQ_STRIDE = 8;
+
+	private static final AtomicLongFieldUpdater<MpmcRingHead> HEAD = AtomicLongFieldUpdater.newUpdater(MpmcRingHead.class, "head");
+	private static final AtomicLongFieldUpdater<MpmcRingTail> TAIL = AtomicLongFieldUpdater.newUpdater(MpmcRingTail.class, "tail");
+
+	private final int capacity;
+	private final int mask;
+	private final Object[] buffer;
+	private final AtomicLongArray sequences;
+
+	/**
+	 * Creates the ring; capacity is rounded up to the next power of 2
+	 * @param requestedCapacity
+	 */
+	MpmcRing(final int requestedCapacity) {
+		int cap = 1;
+		while (cap < requestedCapacity) {
+			cap <<= 1;
+		}
+		capacity = cap;
+		mask = cap - 1;
+		buffer = new Object[cap];
+		sequences = new AtomicLongArray(cap * SEQ_STRIDE);
+		for (int i = 0; i < cap; i++) {
+			sequences.set(i * SEQ_STRIDE, i);
+		}
+	}
+
+	/**
+	 * Adds the element to the tail
+	 * @param e
+	 * @return false if the ring is full
+	 */
+	boolean offer(final E e) {
+		long pos = tail;
+		for (;;) {
+			final int idx = (int) (pos & mask);
+			final long dif = sequences.get(idx * SEQ_STRIDE) - pos;
+			if (dif == 0) {
+				if (TAIL.compareAndSet(this, pos, pos + 1)) {
+					buffer[idx] = e;
+					//volatile publish; pairs with the waiter check done by the caller
+					sequences.set(idx * SEQ_STRIDE, pos + 1);
+					return true;
+				}
+				pos = tail;
+			} else if (dif < 0) {
+				return false;	//slot still held by previous lap
+			} else {
+				pos = tail;		//another producer claimed the slot
+			}
+		}
+	}
+
+	/**
+	 * Removes the element at the head
+	 * @return null if the ring is empty
+	 */
+	@SuppressWarnings("unchecked")
+	E poll() {
+		long pos = head;
+		for (;;) {
+			final int idx = (int) (pos & mask);
+			final long dif = sequences.get(idx * SEQ_STRIDE) - (pos + 1);
+			if (dif == 0) {
+				if (HEAD.compareAndSet(this, pos, pos + 1)) {
+					final E e = (E) buffer[idx];
+					buffer[idx] = null;
+					sequences.set(idx * SEQ_STRIDE, pos + mask + 1);	//free the slot for the next lap
+					return e;
+				}
+				pos = head;
+			} else if (dif < 0) {
+				return null;	//slot not yet published
+			} else {
+				pos = head;		//another consumer took the slot
+			}
+		}
+	}
+
+	/**
+	 * Approximate number of elements (exact when quiescent)
+	 * @return
+	 */
+	int size() {
+		final long h = head;
+		final long size = tail - h;
+		return size < 0 ? 0 : size > capacity ? capacity : (int) size;
+	}
+
+	boolean isEmpty() {
+		return tail == head;
+	}
+
+	int capacity() {
+		return capacity;
+	}
+}
+
+/*
+ * Cursor padding; field layout follows class hierarchy so head and tail
+ * land on separate cache lines.
+ */
+abstract class MpmcRingPad0 {
+	long p00, p01, p02, p03, p04, p05, p06, p07;
+}
+
+abstract class MpmcRingHead extends MpmcRingPad0 {
+	volatile long head;
+}
+
+abstract class MpmcRingPad1 extends MpmcRingHead {
+	long p10, p11, p12, p13, p14, p15, p16, p17;
+}
+
+abstract class MpmcRingTail extends MpmcRingPad1 {
+	volatile long tail;
+}
+
+abstract class MpmcRingCursors extends MpmcRingTail {
+	long p20, p21, p22, p23, p24, p25, p26, p27;
+}
@@ -1,19 +1,52 @@
 package concurrent;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Parallel Method Execution Manager:
  * Use this to execute long running methods in parallel.
  * Define methods (SerialBlock) to run serially in an ArrayList and use addRunBlock().
+ * Dependencies between methods of different blocks can be declared with SerialMethod.dependsOn(),
+ * and the return value of a method passed to another with SerialMethod.result(); the methods
+ * then form a graph (DAG) in which every method starts as soon as its predecessors completed.
  * Call execute() to start the methods.
+ * The methods run on an executor shared by all instances (virtual threads when available,
+ * else a cached pool of daemon threads; see setSharedExecutor), at most maxParallelism
+ * at a time per instance (see setMaxParallelism).
+ * With STOP or EXCEP, a failure cancels the whole run: methods not started yet are skipped,
+ * and running methods are interrupted and can check ParallelMethods.currentToken()
+ * (see CancellationToken).  execute(timeout, unit) cancels the run the same way on timeout.
+ * To process the results as they come instead of after execute() returns, set a ResultListener.
  * @author Trushyap Patel
  */
 public class ParallelMethods {
 	/** Denotes path to take if an exception occurs while executing a method */
 	public static enum ON_EXCEP { EXCEP, STOP, CONT; };
 
+	/** default max number of methods running at once per instance: all ready methods (like a thread per block) */
+	public static final int DEFAULT_MAX_PARALLELISM = Integer.MAX_VALUE;
+
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+	/** runs the methods of all instances; created on first use unless set */
+	private static ExecutorService sharedExecutor;
+	/** token of the run the current thread is executing a method for */
+	private static final ThreadLocal<CancellationToken> CURRENT_TOKEN = new ThreadLocal<CancellationToken>();
+
 	/** parallel set of serialMethods to execute */
 	private ArrayList<ArrayList<SerialMethod>> parallelBlocks = new ArrayList<ArrayList<SerialMethod>>();
 	/** method return objects */
@@ -26,6 +59,12 @@ public class ParallelMethods {
 	private int remainingMethods;
 	/** Denotes whether to print debugging info */
 	private boolean debug = false;
+	/** max number of methods running at once */
+	private int maxParallelism = DEFAULT_MAX_PARALLELISM;
+	/** state of the last execute(); null if none since construction/reset() */
+	private volatile Run current;
+	/** notified of every result/exception as it happens; null if not streaming */
+	private volatile ResultListener listener;
 
 	/**
 	 * Constructor.
@@ -56,9 +95,91 @@ public class ParallelMethods {
 		retObjs.clear();
 		excepObjs.clear();
 		remainingMethods = 0;
+		current = null;	//methods of a timed out run still running no longer record their outcome
 		stopOnExcep = path;
 	}
 
+	/**
+	 * Returns the cancellation token of the run the calling method belongs to;
+	 * a token that is never cancelled if not called from a method run by ParallelMethods
+	 * @return
+	 */
+	public static CancellationToken currentToken() {
+		final CancellationToken current = CURRENT_TOKEN.get();
+		return current == null ? CancellationToken.NONE : current;
+	}
+
+	/**
+	 * Cancels the current run: methods not started yet are skipped (counted as remaining)
+	 * and running methods are interrupted
+	 * @param reason
+	 */
+	public void cancel(final String reason) {
+		final Run run = current;
+		if (run != null) {
+			run.cancel(reason);
+		}
+	}
+
+	/**
+	 * Sets the listener notified of each method's result or exception as soon as the method completes
+	 * (kept across reset())
+	 * @param listener null to stop streaming
+	 */
+	public void setResultListener(final ResultListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Sets the executor the methods of all instances run on (e.g. a ForkJoinPool);
+	 * the previous executor is not shut down.
+	 * If bounded, note that a method calling execute() on another instance occupies a thread while waiting.
+	 * @param executor
+	 */
+	public static synchronized void setSharedExecutor(final ExecutorService executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("Executor is null");
+		}
+		sharedExecutor = executor;
+	}
+
+	/**
+	 * Returns the executor the methods of all instances run on
+	 * (by default virtual threads when available, else a cached pool of daemon threads)
+	 * @return
+	 */
+	public static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = VirtualThreads.newThreadPerTaskExecutor("MyParallel");
+			if (sharedExecutor == null) {
+				sharedExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+					public Thread newThread(final Runnable r) {
+						final Thread t = new Thread(r, "MyParallel" + threadCounter.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+			}
+		}
+		return sharedExecutor;
+	}
+
+	/**
+	 * Sets the max number of methods of this instance running at once
+	 * (default: every method whose predecessors completed)
+	 * @param maxParallelism
+	 */
+	public void setMaxParallelism(final int maxParallelism) {
+		if (maxParallelism < 1) {
+			throw new IllegalArgumentException("Invalid max parallelism: " + maxParallelism);
+		}
+		this.maxParallelism = maxParallelism;
+	}
+
+	public int getMaxParallelism() {
+		return maxParallelism;
+	}
+
 	/**
 	 * Gets the return objects
 	 * @return
@@ -112,29 +233,60 @@ public class ParallelMethods {
 
 	/**
 	 * Executes the methods in parallel.
+	 * A method is started on the shared executor as soon as the methods before it in its
+	 * serial block, and the methods it depends on (dependsOn/result), have completed.
 	 * Method blocks until all methods have completed.
-	 * @throws ParallelMethodException 
+	 * @throws ParallelMethodException if the dependencies are invalid (unknown method or cycle),
+	 * 		or a method failed and EXCEP was specified
 	 */
 	public void execute() throws ParallelMethodException {
-		//Keeps track of spawned threads
-		final Thread[] threads = new Thread[parallelBlocks.size()];
-		int idx = -1;
-		//spawn each parallel set of serialMethods
-		for (ArrayList<SerialMethod> block : parallelBlocks) {
-			threads[++idx] = getThread(block);
-			threads[idx].start();
-			if (debug) System.err.print("[+T" + idx + "]");
+		execute(0, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Executes the methods in parallel, waiting at most the timeout for them to complete.
+	 * On timeout the run is cancelled (see cancel()); methods ignoring interruption
+	 * and the token may still be running when this method throws.
+	 * @param timeout 0 to wait until all methods have completed
+	 * @param unit
+	 * @throws ParallelMethodException if the dependencies are invalid (unknown method or cycle),
+	 * 		a method failed and EXCEP was specified, or the timeout elapsed
+	 */
+	public void execute(final long timeout, final TimeUnit unit) throws ParallelMethodException {
+		final List<Node> nodes = buildGraph();
+		final Run run = new Run(nodes.size());
+		current = run;
+		final CountDownLatch done = run.done;
+		final List<Node> roots = new ArrayList<Node>();
+		for (Node node : nodes) {
+			node.run = run;
+			if (node.pending.get() == 0) {
+				roots.add(node);
+			}
+		}
+		//start the methods without predecessors; the others are started as their predecessors complete
+		for (Node node : roots) {
+			start(node);
+		}
+		try {
+			if (timeout <= 0) {
+				done.await();
+			} else if (!done.await(timeout, unit)) {
+				run.cancel("Timed out after " + timeout + " " + unit);
+				throw new ParallelMethodException("Timed out while processing methods (Not completed: " + done.getCount() + ")");
+			}
+		} catch (InterruptedException e) {
+			if (debug) System.err.print("[x" + Thread.currentThread().getName() + "]");
+			addExcep(run, Thread.currentThread().getName(), e);
+			run.cancel("Interrupted");
 		}
-		//wait for all threads to finish
-		int idx2 = -1;
-		for (Thread thread : threads) {
+
+		final ResultListener l = listener;
+		if (l != null) {
 			try {
-				idx2++;
-				thread.join();
-				if (debug) System.err.print("[-T" + idx2 + "]");
-			} catch (InterruptedException e) {
-				if (debug) System.err.print("[xT" + idx2 + "]");
-				addExcep(thread.getName(), e);
+				l.onComplete(remainingMethods);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
 			}
 		}
 		
@@ -153,79 +305,322 @@ public class ParallelMethods {
 	}
 
 	/**
-	 * Create a new thread to execute the serialBlock list
-	 * @param serialMethodList
+	 * Builds the graph of the methods:
+	 * chain edges between consecutive methods of a serial block (governed by ON_EXCEP),
+	 * and hard edges from the declared dependencies and result() parameters
+	 * (a failed dependency always skips the method).
 	 * @return
+	 * @throws ParallelMethodException if a dependency was not added or the dependencies form a cycle
 	 */
-	private Thread getThread(final ArrayList<SerialMethod> serialMethodList) {
-		final Thread t = new Thread(
-	            new Runnable() {
-					public void run() {
-						int remainingMethods = serialMethodList.size(); //track remaining number of methods to process
-						// Execute all methods serially
-						for (SerialMethod serialMethodObj : serialMethodList) {
-							try {
-								/* 
-								 * Invoke the method and capture the return object (if any)
-								 * Note that a new instance is created for every method call if an object instance was not already specified.
-								 * Since this framework should be used for long running methods, instantiating
-								 * a few extra objects should not be an issue. 
-								 */
-								final Object obj = serialMethodObj.serialMethod.invoke(
-										serialMethodObj.serialObjInst == null ? serialMethodObj.serialClass.newInstance() : serialMethodObj.serialObjInst, 
-										serialMethodObj.methodParams);
-
-								//decrement the num of methods remaining
-								remainingMethods--;
-								
-								// Save the return object
-								if (void.class != serialMethodObj.serialMethod.getReturnType()) {
-									addReturn(serialMethodObj.serialName, obj);
-								}
-							} catch (Exception e) {
-								//IllegalArgumentException
-								//IllegalAccessException
-								//InvocationTargetException
-								//InstantiationException
-								addExcep(serialMethodObj.serialName, e);
-								
-								//check if remaining methods should stop processing if excep occurs
-								if (ON_EXCEP.STOP.equals(stopOnExcep) || ON_EXCEP.EXCEP.equals(stopOnExcep)) {
-									addRemaining(remainingMethods);
-									break;
-								}
-							}
-						}
-	                }
-	            });
-		return t;
+	private List<Node> buildGraph() throws ParallelMethodException {
+		final Map<String, Node> byName = new HashMap<String, Node>();
+		final Map<SerialMethod, Node> byMethod = new IdentityHashMap<SerialMethod, Node>();
+		final List<Node> nodes = new ArrayList<Node>();
+		for (ArrayList<SerialMethod> block : parallelBlocks) {
+			Node previous = null;
+			for (SerialMethod method : block) {
+				if (byMethod.containsKey(method)) {
+					throw new ParallelMethodException("SerialMethod " + method.serialName + " added more than once");
+				}
+				final Node node = new Node(method);
+				nodes.add(node);
+				byMethod.put(method, node);
+				byName.put(method.serialName, node);
+				if (previous != null) {
+					previous.chainNext = node;
+					node.pending.incrementAndGet();
+				}
+				previous = node;
+			}
+		}
+		for (Node node : nodes) {
+			final Set<Node> deps = new LinkedHashSet<Node>();
+			for (SerialMethod dependency : node.method.dependencies) {
+				final Node dep = byMethod.get(dependency);
+				if (dep == null) {
+					throw new ParallelMethodException("SerialMethod " + node.method.serialName + " depends on " + dependency.serialName + " which was not added");
+				}
+				deps.add(dep);
+			}
+			for (String name : node.method.resultNames) {
+				final Node dep = byName.get(name);
+				if (dep == null) {
+					throw new ParallelMethodException("SerialMethod " + node.method.serialName + " uses the result of " + name + " which was not added");
+				}
+				deps.add(dep);
+			}
+			for (Node dep : deps) {
+				dep.dependents.add(node);
+				node.pending.incrementAndGet();
+			}
+		}
+		checkAcyclic(nodes);
+		return nodes;
 	}
-	
+
+	/**
+	 * Kahn's algorithm: if the nodes cannot all be ordered, there is a cycle
+	 * @param nodes
+	 * @throws ParallelMethodException
+	 */
+	private static void checkAcyclic(final List<Node> nodes) throws ParallelMethodException {
+		final Map<Node, Integer> inDegree = new IdentityHashMap<Node, Integer>();
+		final ArrayDeque<Node> ready = new ArrayDeque<Node>();
+		for (Node node : nodes) {
+			inDegree.put(node, node.pending.get());
+			if (node.pending.get() == 0) {
+				ready.add(node);
+			}
+		}
+		int ordered = 0;
+		while (!ready.isEmpty()) {
+			final Node node = ready.poll();
+			ordered++;
+			for (Node next : node.successors()) {
+				final int remaining = inDegree.get(next) - 1;
+				inDegree.put(next, remaining);
+				if (remaining == 0) {
+					ready.add(next);
+				}
+			}
+		}
+		if (ordered < nodes.size()) {
+			final StringBuilder cycle = new StringBuilder();
+			for (Node node : nodes) {
+				if (inDegree.get(node) > 0) {
+					cycle.append(cycle.length() == 0 ? "" : ", ").append(node.method.serialName);
+				}
+			}
+			throw new ParallelMethodException("Cyclic dependency between SerialMethods: " + cycle);
+		}
+	}
+
+	/**
+	 * Runs the method on the shared executor, once a lane of its run is free
+	 * @param node
+	 */
+	private void start(final Node node) {
+		node.run.dispatcher.execute(node);
+	}
+
+	/**
+	 * Returns a copy of the return objects (for methods taking the result of other methods)
+	 * @return
+	 */
+	private synchronized HashMap<String, Object> copyReturns() {
+		return new HashMap<String, Object>(retObjs);
+	}
+
+	/**
+	 * State of one execute().  Each node references its run, so methods still running after
+	 * a timeout never see the token, lanes or latch of a later execute()
+	 */
+	private final class Run {
+		/** cancelled when a method failed with STOP/EXCEP, on timeout, or by cancel(): methods not started yet are skipped */
+		private final CancellationToken token = new CancellationToken();
+		/** runs the methods of the run */
+		private final BoundedDispatcher dispatcher = new BoundedDispatcher(getSharedExecutor(), maxParallelism);
+		/** counted down as each method completes or is skipped */
+		private final CountDownLatch done;
+		/** methods running at the moment (interrupted on cancel) */
+		private final Set<Node> running = ConcurrentHashMap.newKeySet();
+
+		private Run(final int methods) {
+			done = new CountDownLatch(methods);
+		}
+
+		private void cancel(final String reason) {
+			if (token.cancel(reason)) {
+				if (debug) System.err.print("[cancel: " + reason + "]");
+				for (Node node : running) {
+					node.interrupt();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A method in the graph and its edges
+	 */
+	private final class Node implements Runnable {
+		private final SerialMethod method;
+		/** next method of the same serial block */
+		private Node chainNext;
+		/** methods depending on this one (dependsOn/result) */
+		private final List<Node> dependents = new ArrayList<Node>();
+		/** number of predecessors not completed yet */
+		private final AtomicInteger pending = new AtomicInteger();
+		/** set when a predecessor failed such that this method must not run */
+		private volatile boolean blocked = false;
+		/** the execute() the node was built for */
+		private Run run;
+		/** thread running the method (guarded by this) */
+		private Thread runner;
+
+		private Node(final SerialMethod method) {
+			this.method = method;
+		}
+
+		/**
+		 * Interrupts the method if still running
+		 */
+		private synchronized void interrupt() {
+			if (runner != null) {
+				runner.interrupt();
+			}
+		}
+
+		private List<Node> successors() {
+			final List<Node> next = new ArrayList<Node>(dependents);
+			if (chainNext != null) {
+				next.add(chainNext);
+			}
+			return next;
+		}
+
+		public void run() {
+			final CancellationToken runToken = run.token;
+			if (runToken.isCancelled()) {
+				//another method failed with STOP/EXCEP, or timed out
+				addRemaining(run, 1);
+				finish(false);
+				return;
+			}
+			if (debug) System.err.print("[+" + method.serialName + "]");
+			boolean ok = false;
+			synchronized (this) {
+				runner = Thread.currentThread();
+			}
+			run.running.add(this);
+			CURRENT_TOKEN.set(runToken);
+			if (runToken.isCancelled()) {
+				runner.interrupt();	//cancelled while registering; cancel() may have missed this method
+			}
+			try {
+				// Invoke the method and capture the return object (if any)
+				final Object obj = method.invoke(method.resultNames.isEmpty() ? Collections.<String, Object>emptyMap() : copyReturns());
+				ok = true;
+
+				// Save the return object
+				if (method.hasReturn()) {
+					addReturn(run, method.serialName, obj);
+				}
+				final ResultListener l = listener;
+				if (l != null && current == run) {
+					try {
+						l.onResult(method.serialName, obj);
+					} catch (RuntimeException e) {
+						e.printStackTrace();	//listener failure is not a method failure
+					}
+				}
+			} catch (Exception e) {
+				//IllegalArgumentException
+				//IllegalAccessException
+				//InvocationTargetException
+				//InstantiationException
+				if (runToken.isCancelled()) {
+					//interrupted/aborted by the cancellation; not a failure of its own
+					addRemaining(run, 1);
+				} else {
+					addExcep(run, method.serialName, e);
+					
+					//check if remaining methods should stop processing if excep occurs
+					if (ON_EXCEP.STOP.equals(stopOnExcep) || ON_EXCEP.EXCEP.equals(stopOnExcep)) {
+						addRemaining(run, 1);
+						run.cancel("Exception in " + method.serialName);	//stop all other methods
+					}
+				}
+			} finally {
+				CURRENT_TOKEN.remove();
+				run.running.remove(this);
+				synchronized (this) {
+					runner = null;
+				}
+				Thread.interrupted();	//do not leak an interrupt to the next method run by this thread
+			}
+			if (debug) System.err.print("[-" + method.serialName + "]");
+			finish(ok);
+		}
+
+		/**
+		 * Releases the successors once this method completed (or was skipped)
+		 * @param ok true if the method ran successfully
+		 */
+		private void finish(final boolean ok) {
+			if (chainNext != null) {
+				if (!ok && !ON_EXCEP.CONT.equals(stopOnExcep)) {
+					chainNext.blocked = true;
+				}
+				chainNext.predecessorDone();
+			}
+			for (Node dependent : dependents) {
+				if (!ok) {
+					dependent.blocked = true;
+				}
+				dependent.predecessorDone();
+			}
+			run.done.countDown();
+		}
+
+		private void predecessorDone() {
+			if (pending.decrementAndGet() == 0) {
+				if (blocked) {
+					//skipped: counts as remaining, and its successors are released the same way
+					addRemaining(run, 1);
+					finish(false);
+				} else {
+					start(this);
+				}
+			}
+		}
+	}
+
 	/**
-	 * Adds the remaining methods
+	 * Adds the remaining methods (ignored if the run is no longer current)
+	 * @param run
 	 * @param num
 	 */
-	private synchronized void addRemaining(final int num) {
-		remainingMethods += num;
+	private synchronized void addRemaining(final Run run, final int num) {
+		if (current == run) {
+			remainingMethods += num;
+		}
 	}
 
 	/**
-	 * Adds the method exception
+	 * Adds the method exception (ignored if the run is no longer current)
+	 * @param run
 	 * @param blockName
 	 * @param e
 	 */
-	private synchronized void addExcep(final String blockName, final Exception e) {
-		if (debug) System.err.println("Exception: " + e.getMessage());
-		excepObjs.put(blockName, e.getCause() != null ? e.getCause() : e);
+	private void addExcep(final Run run, final String blockName, final Exception e) {
+		final Throwable cause = e.getCause() != null ? e.getCause() : e;
+		synchronized (this) {
+			if (current != run) {
+				return;
+			}
+			if (debug) System.err.println("Exception: " + e.getMessage());
+			excepObjs.put(blockName, cause);
+		}
+		final ResultListener l = listener;
+		if (l != null) {
+			try {
+				l.onException(blockName, cause);
+			} catch (RuntimeException le) {
+				le.printStackTrace();
+			}
+		}
 	}
 
 	/**
-	 * Adds the return object
+	 * Adds the return object (ignored if the run is no longer current)
+	 * @param run
 	 * @param blockName
 	 * @param obj
 	 */
-	private synchronized void addReturn(final String blockName, final Object obj) {
-		retObjs.put(blockName, obj);
+	private synchronized void addReturn(final Run run, final String blockName, final Object obj) {
+		if (current == run) {
+			retObjs.put(blockName, obj);
+		}
 	}
 
 }
@@ -0,0 +1,281 @@
+package concurrent;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A connection handed out by ConnectionPool.
+ *
+ * Tracks when it was last returned to the pool (for validation and idle eviction)
+ * and whether tasks have used it since the last commit/rollback; a dirty connection
+ * holds uncommitted work, so it is never evicted.
+ *
+ * Pending statement batches (see StatementBatcher) are sent before every commit,
+ * and the tasks whose work was committed are recorded in the journal (if any) after it.
+ *
+ * The work of a task that may be retried can be undone alone (see markTask): to a savepoint
+ * set before the task, or by a full rollback if the connection held no other uncommitted work.
+ *
+ * @author TPatel
+ */
+public final class PooledConnection {
+	private final String name;
+	private final Connection conn;
+	private final StatementBatcher batcher;
+	/** time (ms) the connection was last returned to the pool */
+	private volatile long lastUsed = System.currentTimeMillis();
+	/** denotes whether tasks used the connection since the last commit/rollback */
+	private volatile boolean dirty = false;
+	/** tasks run with the connection since the last commit/rollback (updated by the holding worker only) */
+	private volatile int uncommittedTasks = 0;
+	/** time (ms) of the last commit/rollback */
+	private volatile long lastCommit = System.currentTimeMillis();
+	/** records the completed tasks once committed; null if not journaling */
+	private volatile TaskJournal journal;
+	/** names of the tasks completed since the last commit/rollback (guarded by this) */
+	private final List<String> uncommittedNames = new ArrayList<String>();
+	/** savepoint set before the running task; null if none (used by the holding worker only) */
+	private Savepoint taskSavepoint;
+	/** denotes whether the connection held no uncommitted work when the running task started */
+	private boolean cleanAtMark = false;
+
+	PooledConnection(final String name, final Connection conn) {
+		this.name = name;
+		this.conn = conn;
+		this.batcher = new StatementBatcher(conn);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Connection getConnection() {
+		return conn;
+	}
+
+	/**
+	 * Returns the statement batcher of the connection
+	 * @return
+	 */
+	public StatementBatcher getBatcher() {
+		return batcher;
+	}
+
+	/**
+	 * Returns true if tasks used the connection since the last commit/rollback
+	 * @return
+	 */
+	public boolean isDirty() {
+		return dirty;
+	}
+
+	/**
+	 * Called by the worker after running a task with the connection
+	 */
+	void taskRan() {
+		dirty = true;
+		uncommittedTasks++;
+	}
+
+	void setJournal(final TaskJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * Called by the worker after a task completed successfully with the connection;
+	 * the task is journaled once its work is committed (immediately if there is no connection)
+	 * @param taskName
+	 */
+	void taskSucceeded(final String taskName) {
+		final TaskJournal j = journal;
+		if (j == null || taskName == null) {
+			return;
+		}
+		if (conn == null) {
+			journal(j, Collections.singletonList(taskName));
+		} else {
+			synchronized (this) {
+				uncommittedNames.add(taskName);
+			}
+		}
+	}
+
+	/**
+	 * Called by the worker before running a task that may be retried: marks the point undoTask()
+	 * returns to.  A savepoint is set only if the connection holds uncommitted work; otherwise
+	 * a rollback undoes the task, which saves a round trip per task.
+	 */
+	void markTask() {
+		cleanAtMark = !dirty;
+		taskSavepoint = null;
+		batcher.mark();
+		if (conn != null && !cleanAtMark) {
+			try {
+				taskSavepoint = conn.setSavepoint();
+			} catch (SQLException e) {
+				//savepoints not supported; the task's work cannot be undone alone
+			}
+		}
+	}
+
+	/**
+	 * Called by the worker after a marked task failed: undoes the task's statements and batched rows
+	 * @return true if undone; false if the task's work could not be told apart from earlier uncommitted work
+	 */
+	boolean undoTask() {
+		final Savepoint sp = taskSavepoint;
+		taskSavepoint = null;
+		if (conn == null) {
+			batcher.unmark();
+			return true;	//no database work to undo
+		}
+		try {
+			if (sp != null) {
+				conn.rollback(sp);
+				batcher.rollbackToMark();
+				return true;
+			} else if (cleanAtMark) {
+				rollback();
+				return true;
+			}
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+		batcher.unmark();
+		return false;
+	}
+
+	/**
+	 * Called by the worker after a marked task succeeded: drops the mark
+	 */
+	void taskDone() {
+		final Savepoint sp = taskSavepoint;
+		taskSavepoint = null;
+		batcher.unmark();
+		if (sp != null) {
+			try {
+				conn.releaseSavepoint(sp);
+			} catch (SQLException e) {
+				//not supported by every driver; released by the commit anyway
+			}
+		}
+	}
+
+	/**
+	 * Returns number of tasks run with the connection since the last commit/rollback
+	 * @return
+	 */
+	public int getUncommittedTasks() {
+		return uncommittedTasks;
+	}
+
+	/**
+	 * Returns the time (ms) of the last commit/rollback
+	 * @return
+	 */
+	public long getLastCommit() {
+		return lastCommit;
+	}
+
+	long getLastUsed() {
+		return lastUsed;
+	}
+
+	void touch() {
+		lastUsed = System.currentTimeMillis();
+	}
+
+	/**
+	 * Checks the connection is still usable
+	 * @param timeoutSecs max time to wait for the database
+	 * @return
+	 */
+	boolean isValid(final int timeoutSecs) {
+		if (conn == null) {
+			return true;	//nothing to check (controller without a database)
+		}
+		try {
+			return !conn.isClosed() && conn.isValid(timeoutSecs);
+		} catch (SQLException e) {
+			return false;
+		} catch (AbstractMethodError e) {
+			return true;	//pre JDBC 4 driver; cannot tell
+		}
+	}
+
+	/**
+	 * Sends the pending statement batches, then commits.
+	 * If either fails, the connection is rolled back (nothing of the transaction is kept) and the failure thrown.
+	 * @throws SQLException
+	 */
+	public void commit() throws SQLException {
+		try {
+			batcher.flush();
+			if (conn != null) {
+				conn.commit();
+			}
+		} catch (SQLException e) {
+			try {
+				rollback();
+			} catch (SQLException re) {
+				e.addSuppressed(re);
+			}
+			throw e;
+		}
+		final TaskJournal j = journal;
+		if (j != null) {
+			synchronized (this) {
+				journal(j, uncommittedNames);
+			}
+		}
+		ended();
+	}
+
+	/**
+	 * Drops the pending statement batches, then rolls back
+	 * @throws SQLException
+	 */
+	public void rollback() throws SQLException {
+		batcher.clear();
+		if (conn != null) {
+			conn.rollback();
+		}
+		ended();
+	}
+
+	/**
+	 * Records the tasks; a failure here means the tasks would be run again on restart
+	 * @param j
+	 * @param names
+	 */
+	private void journal(final TaskJournal j, final List<String> names) {
+		try {
+			j.appendAll(names);
+		} catch (Exception e) {
+			System.err.println("Unable to journal " + names.size() + " tasks completed with " + name);
+			e.printStackTrace();
+		}
+	}
+
+	private synchronized void ended() {
+		uncommittedNames.clear();
+		dirty = false;
+		uncommittedTasks = 0;
+		lastCommit = System.currentTimeMillis();
+	}
+
+	void close() throws SQLException {
+		batcher.close();
+		if (conn != null) {
+			conn.close();
+		}
+	}
+
+	public String toString() {
+		return name + (dirty ? " (dirty)" : "");
+	}
+}
@@ -0,0 +1,60 @@
+package concurrent;
+
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Task buffer which dequeues by deadline and priority instead of FIFO.
+ *
+ * Every task is ordered by one effective deadline (earliest first, FIFO among equals):
+ *    (deadline, or enqueue time + aging interval if none) - priority * aging interval
+ * so a task without a deadline is due one aging interval after it was queued, and each
+ * priority level moves a task (with or without deadline) one aging interval earlier.
+ *
+ * The key is computed once, when the task enters the heap (under the monitor, so the FIFO
+ * sequence matches the insertion order), and later changes to the priority or deadline of
+ * a queued task do not reorder it.  While it waits, the keys of newly queued tasks grow
+ * with time, which gives the same order as continuously raising the priority of waiting
+ * tasks (aging): a waiting task is overtaken only by tasks whose effective deadline is
+ * earlier than its own, so neither deadline tasks nor high priority tasks can starve it.
+ *
+ * Overflow semantics are the same as MonitorTaskBuffer (it is the same monitor logic
+ * over a heap instead of a LinkedList).
+ *
+ * @author TPatel
+ */
+final class PriorityTaskBuffer extends MonitorTaskBuffer {
+	/** default aging interval: one priority level per minute waited */
+	static final long DEFAULT_AGING_MILLIS = 60 * 1000;
+
+	private final long agingMillis;
+	/** last sequence given out; guarded by the monitor */
+	private long sequence = 0;
+
+	PriorityTaskBuffer(final int queueSize, final double produceThreshhold, final long agingMillis) {
+		super(queueSize, produceThreshhold, new PriorityQueue<BaseWorkTask>(Math.max(queueSize, 11), new TaskOrder()));
+		this.agingMillis = agingMillis;
+	}
+
+	/**
+	 * Computes the effective deadline of the task and its place among equals
+	 * @param task
+	 */
+	protected void queued(final BaseWorkTask task) {
+		final long due = task.deadline != BaseWorkTask.NO_DEADLINE ? task.deadline : System.currentTimeMillis() + agingMillis;
+		task.orderKey = due - task.priority * agingMillis;
+		task.enqueueSeq = ++sequence;
+	}
+
+	/**
+	 * Earliest effective deadline first, then FIFO
+	 */
+	private static final class TaskOrder implements Comparator<BaseWorkTask> {
+		public int compare(final BaseWorkTask a, final BaseWorkTask b) {
+			if (a.orderKey != b.orderKey) {
+				return a.orderKey < b.orderKey ? -1 : 1;
+			}
+			return a.enqueueSeq < b.enqueueSeq ? -1 : a.enqueueSeq == b.enqueueSeq ? 0 : 1;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package concurrent;
+
+/**
+ * Receives the outcome of each SerialMethod as soon as it completes, while
+ * ParallelMethods.execute() is still running the other methods
+ * (see ParallelMethods.setResultListener).
+ *
+ * onResult/onException are called on the thread that ran the method, possibly by several
+ * threads at once; keep them short or hand the work off (e.g. to a WorkerThreadPool).
+ * A dependent method does not start before the callback of its predecessor returned.
+ *
+ * @author TPatel
+ */
+public interface ResultListener {
+	/**
+	 * Called when a method completed successfully
+	 * @param serialName name of the method
+	 * @param result its return value (null for void methods)
+	 */
+	void onResult(String serialName, Object result);
+
+	/**
+	 * Called when a method failed
+	 * @param serialName name of the method
+	 * @param failure the exception thrown by the method
+	 */
+	void onException(String serialName, Throwable failure);
+
+	/**
+	 * Called by execute() once every method has completed or been skipped
+	 * (not called when execute() times out)
+	 * @param remaining number of methods not run (see ParallelMethods.getReminingMethods)
+	 */
+	void onComplete(int remaining);
+}
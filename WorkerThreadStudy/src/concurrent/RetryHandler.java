@@ -0,0 +1,152 @@
+package concurrent;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides what happens to a task whose run() threw: queued again after the backoff
+ * of its RetryPolicy, or handed to the dead letter queue once out of attempts.
+ *
+ * The delay is served by a scheduler thread, so workers never sleep on a retry.
+ * A task waiting for its retry still counts as in flight (see CompletionTracker),
+ * so a graceful shutdown waits for it; an immediate shutdown fails the pending retries
+ * (dead letter queue, future completed exceptionally).
+ *
+ * @author TPatel
+ */
+final class RetryHandler {
+	private final WorkQueue queue;
+	private final DeadLetterQueue deadLetters = new DeadLetterQueue(DeadLetterQueue.DEFAULT_CAPACITY);
+	private volatile RetryPolicy defaultPolicy = RetryPolicy.NO_RETRY;
+	/** created on first retry */
+	private ScheduledExecutorService scheduler;
+	/** retries scheduled but not run yet; whoever removes one (run or shutdown) handles its task */
+	private final Set<Retry> pending = ConcurrentHashMap.newKeySet();
+	private volatile boolean shutdown = false;
+
+	RetryHandler(final WorkQueue queue) {
+		this.queue = queue;
+	}
+
+	void setDefaultPolicy(final RetryPolicy policy) {
+		defaultPolicy = policy == null ? RetryPolicy.NO_RETRY : policy;
+	}
+
+	RetryPolicy getDefaultPolicy() {
+		return defaultPolicy;
+	}
+
+	DeadLetterQueue getDeadLetters() {
+		return deadLetters;
+	}
+
+	/**
+	 * Returns true if the task would be retried should its next run fail (the worker then marks
+	 * the connection so the failed run can be undone)
+	 * @param task
+	 * @return
+	 */
+	boolean mayRetry(final BaseWorkTask task) {
+		return task.attempts + 1 < policyOf(task).getMaxAttempts();
+	}
+
+	/**
+	 * Called by the worker when the task failed
+	 * @param task
+	 * @param failure
+	 * @param undone false if the failed run's work is still on the connection (running again would repeat it)
+	 * @return true if a retry was scheduled (the task is still in flight);
+	 * 		false if the task was given up on (moved to the dead letter queue)
+	 */
+	boolean retry(final BaseWorkTask task, final Throwable failure, final boolean undone) {
+		final RetryPolicy policy = policyOf(task);
+		final int attempts = ++task.attempts;
+		if (undone && attempts < policy.getMaxAttempts() && policy.shouldRetry(failure) && !shutdown && !queue.isShutdown()) {
+			final Retry r = new Retry(task, failure);
+			pending.add(r);
+			try {
+				getScheduler().schedule(r, policy.getDelayMillis(attempts), TimeUnit.MILLISECONDS);
+				return true;
+			} catch (RuntimeException e) {
+				//scheduler shut down in between; give up on the task unless shutdown() already did
+				if (!pending.remove(r)) {
+					return true;
+				}
+			}
+		}
+		deadLetters.add(task, failure, attempts);
+		return false;
+	}
+
+	private RetryPolicy policyOf(final BaseWorkTask task) {
+		final RetryPolicy taskPolicy = task.getRetryPolicy();
+		return taskPolicy == null ? defaultPolicy : taskPolicy;
+	}
+
+	private synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(final Runnable r) {
+					final Thread t = new Thread(r, "MyRetryScheduler");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Drops the pending retries (immediate shutdown): their tasks go to the dead letter queue,
+	 * their futures fail and they no longer count as in flight
+	 */
+	synchronized void shutdown() {
+		shutdown = true;
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+		}
+		for (Retry r : pending) {
+			if (pending.remove(r)) {
+				drop(r);
+			}
+		}
+	}
+
+	/**
+	 * Gives up on a retry dropped by the shutdown
+	 * @param r
+	 */
+	private void drop(final Retry r) {
+		deadLetters.add(r.task, r.failure, r.task.attempts);
+		r.task.complete(new IllegalStateException("Pool is shutdown; retry dropped", r.failure));
+		queue.getTracker().end();
+	}
+
+	/**
+	 * A scheduled retry of a task
+	 */
+	private final class Retry implements Runnable {
+		private final BaseWorkTask task;
+		/** failure of the last run */
+		private final Throwable failure;
+
+		private Retry(final BaseWorkTask task, final Throwable failure) {
+			this.task = task;
+			this.failure = failure;
+		}
+
+		public void run() {
+			if (pending.remove(this)) {
+				if (shutdown || queue.isShutdown()) {
+					drop(this);
+				} else {
+					queue.requeue(task);
+				}
+			}
+		}
+	}
+}
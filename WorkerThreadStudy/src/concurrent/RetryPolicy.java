@@ -0,0 +1,66 @@
+package concurrent;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How often and when a failed task is run again.
+ *
+ * The delay before retry n (1 based) is initialDelay * 2^(n-1), capped at maxDelay,
+ * of which the second half is random (jitter), so tasks that failed together
+ * (e.g. on a database hiccup) do not all come back at the same moment.
+ *
+ * Override shouldRetry() to retry only transient failures.
+ *
+ * @author TPatel
+ */
+public class RetryPolicy {
+	/** run once; failures go straight to the dead letter queue */
+	public static final RetryPolicy NO_RETRY = new RetryPolicy(1, 0, 0);
+
+	private final int maxAttempts;
+	private final long initialDelayMillis;
+	private final long maxDelayMillis;
+
+	/**
+	 * @param maxAttempts total number of runs (first run included)
+	 * @param initialDelayMillis delay before the first retry
+	 * @param maxDelayMillis upper bound of the delay
+	 */
+	public RetryPolicy(final int maxAttempts, final long initialDelayMillis, final long maxDelayMillis) {
+		if (maxAttempts < 1 || initialDelayMillis < 0 || maxDelayMillis < initialDelayMillis) {
+			throw new IllegalArgumentException("Invalid retry policy: " + maxAttempts + " attempts, " + initialDelayMillis + "-" + maxDelayMillis + "ms");
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialDelayMillis = initialDelayMillis;
+		this.maxDelayMillis = maxDelayMillis;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Denotes whether the failure is worth retrying (default: any failure)
+	 * @param failure
+	 * @return
+	 */
+	public boolean shouldRetry(final Throwable failure) {
+		return true;
+	}
+
+	/**
+	 * Returns the delay before running the task again
+	 * @param attempts number of runs so far (1 after the first failure)
+	 * @return
+	 */
+	public long getDelayMillis(final int attempts) {
+		final int shift = Math.min(Math.max(attempts - 1, 0), 62);
+		final long delay = initialDelayMillis > (maxDelayMillis >> shift) ? maxDelayMillis : initialDelayMillis << shift;
+		final long half = delay / 2;
+		return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+	}
+
+	public String toString() {
+		return "RetryPolicy[attempts=" + maxAttempts + ", delay=" + initialDelayMillis + "-" + maxDelayMillis + "ms]";
+	}
+}
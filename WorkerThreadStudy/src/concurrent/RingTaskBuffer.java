@@ -0,0 +1,211 @@
+package concurrent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lock-free task buffer backed by a pre-sized MpmcRing.
+ *
+ * put/take do not take any lock.  Threads only park when there is nothing to do:
+ * workers when the ring is empty, producers while in overflow.  Each put wakes a
+ * single waiting worker instead of all of them.
+ *
+ * Overflow semantics are the same as MonitorTaskBuffer: once more than queueSize tasks
+ * are waiting, producers block until the workers drain it down to the produce threshhold.
+ *
+ * @author TPatel
+ */
+final class RingTaskBuffer implements TaskBuffer {
+	/** upper bound for a single park; guards against a signal delivered to a thread that did not park */
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** size of task queue before overflow is triggered */
+	private final int queueSize;
+	/** number of tasks to drain down to before allowing for tasks to resume queuing */
+	private final double lowWater;
+
+	private final MpmcRing<BaseWorkTask> ring;
+	/** workers waiting for a task */
+	private final WaitList workers = new WaitList();
+	/** producers waiting for the overflow to clear */
+	private final WaitList producers = new WaitList();
+
+	/** ended for tasks that cannot be queued any more (shutdown) */
+	private final CompletionTracker tracker;
+
+	private volatile boolean mIsShutdown = false;
+	private volatile boolean isOverFlow = false;
+
+	RingTaskBuffer(final int queueSize, final double produceThreshhold, final CompletionTracker tracker) {
+		this.queueSize = queueSize;
+		this.tracker = tracker;
+		this.lowWater = produceThreshhold * queueSize;
+		//twice the overflow size leaves room for producers that pass the overflow check together
+		ring = new MpmcRing<BaseWorkTask>(queueSize * 2);
+	}
+
+	public boolean isShutdown() {
+		return mIsShutdown;
+	}
+
+	public void shutdown() {
+		mIsShutdown = true;
+		workers.signalAll();
+		producers.signalAll();
+	}
+
+	public void put(final BaseWorkTask task) {
+		awaitOverflow();
+		offer(task);
+
+		//wake one waiting worker
+		if (workers.hasWaiters()) {
+			workers.signalOne();
+		}
+	}
+
+	public void putAll(final Collection<? extends BaseWorkTask> tasks) {
+		awaitOverflow();
+		for (BaseWorkTask task : tasks) {
+			offer(task);
+
+			//wake one waiting worker per task, only while workers are parked
+			if (workers.hasWaiters()) {
+				workers.signalOne();
+			}
+		}
+	}
+
+	/**
+	 * If overflow point reached, then park until the workers drain the ring to the lower threshhold
+	 */
+	private void awaitOverflow() {
+		if (ring.size() > queueSize) {	//check if threshold reached
+			isOverFlow = true;
+			//re-check the size after setting the flag: the workers may have drained the ring before seeing it
+			while (isOverFlow && ring.size() > lowWater && !mIsShutdown) {
+				producers.enlist();
+				try {
+					if (isOverFlow && ring.size() > lowWater && !mIsShutdown) {
+						producers.park(PARK_NANOS);
+					}
+				} finally {
+					producers.delist();
+				}
+			}
+			if (isOverFlow && ring.size() <= lowWater) {
+				isOverFlow = false;
+				producers.signalAll();
+			}
+		}
+	}
+
+	/**
+	 * Adds the task to the ring.
+	 * The ring is only full when many producers raced past the overflow check; waits for a free slot.
+	 * If shutdown meanwhile, the task is failed instead (its submit() future completes exceptionally).
+	 * @param task
+	 */
+	private void offer(final BaseWorkTask task) {
+		while (!ring.offer(task)) {
+			if (mIsShutdown) {
+				//workers are gone; nobody will ever free a slot
+				task.complete(new IllegalStateException("Pool is shutdown; task not queued"));
+				tracker.end();
+				return;
+			}
+			producers.enlist();
+			try {
+				if (ring.size() >= ring.capacity() && !mIsShutdown) {
+					producers.park(PARK_NANOS);
+				}
+			} finally {
+				producers.delist();
+			}
+		}
+	}
+
+	public void register(final Thread worker) {
+		//workers share the buffer; nothing to track
+	}
+
+	public void unregister(final Thread worker) {
+		//workers share the buffer; nothing to track
+	}
+
+	public int size() {
+		return ring.size();
+	}
+
+	public BaseWorkTask take() throws InterruptedException {
+		for (;;) {
+			final BaseWorkTask result = ring.poll();
+			if (result != null) {
+				afterTake();
+				return result;
+			}
+			if (!awaitTask()) {
+				return null;
+			}
+		}
+	}
+
+	public int takeBatch(final List<BaseWorkTask> batch, final int max) throws InterruptedException {
+		for (;;) {
+			int count = 0;
+			BaseWorkTask result;
+			while (count < max && (result = ring.poll()) != null) {
+				batch.add(result);
+				count++;
+			}
+			if (count > 0) {
+				afterTake();
+				return count;
+			}
+			if (!awaitTask()) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * If low threshhold reached, signal producers to add tasks
+	 */
+	private void afterTake() {
+		if (isOverFlow) {
+			if (ring.size() <= lowWater) {
+				isOverFlow = false;
+				producers.signalAll();
+			}
+		} else if (producers.hasWaiters()) {
+			producers.signalOne();
+		}
+	}
+
+	/**
+	 * Parks while the ring is empty
+	 * @return false if shutdown was requested
+	 * @throws InterruptedException
+	 */
+	private boolean awaitTask() throws InterruptedException {
+		if (mIsShutdown) {
+			isOverFlow = false;
+			return false;
+		}
+
+		//if there are no more tasks in the ring, park...
+		workers.enlist();
+		try {
+			if (ring.isEmpty() && !mIsShutdown) {
+				workers.park(PARK_NANOS);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			workers.delist();
+		}
+		return true;
+	}
+}
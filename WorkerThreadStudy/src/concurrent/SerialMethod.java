@@ -1,10 +1,18 @@
 package concurrent;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Defines a method to execute.
+ *
+ * Methods can depend on each other (see dependsOn), and a parameter can be the return
+ * value of another method (see result); ParallelMethods runs a method once the methods
+ * it depends on have completed.
  * @author Trushyap Patel
  *
  */
@@ -25,6 +33,12 @@ public class SerialMethod{
 	protected Object[] methodParams;
 	/** object instance */
 	protected Object serialObjInst;
+	/** invokes serialMethod (cached MethodHandle) */
+	private final MethodInvoker invoker;
+	/** methods which must complete (successfully) before this one runs */
+	protected final ArrayList<SerialMethod> dependencies = new ArrayList<SerialMethod>();
+	/** names of the methods whose return values are passed as parameters */
+	protected final ArrayList<String> resultNames = new ArrayList<String>();
 
 
 	/**
@@ -59,6 +73,13 @@ public class SerialMethod{
 		this.serialName = serialName;
 		this.serialClass = targetClass;
 		this.methodParams = methodParams;
+		if (methodParams != null) {
+			for (Object param : methodParams) {
+				if (param instanceof ResultRef) {
+					resultNames.add(((ResultRef) param).serialName);
+				}
+			}
+		}
 		
 		/* Get the parameter classes (in order to search for the method) */
 		Class<?>[] paramTypes = null;
@@ -72,29 +93,107 @@ public class SerialMethod{
 			}
 		}
 
-		/* Search for method */
-		serialMethod = null;
-		try {
-			serialMethod = targetClass.getDeclaredMethod(methodName, paramTypes);
-			serialMethod.setAccessible(true);
-		} catch (SecurityException e) {
-			throw new ParallelMethodException("SecurityException: " + e.getMessage());
-		} catch (NoSuchMethodException e) {
-			Method[] methods = targetClass.getDeclaredMethods();
-			boolean found = false;
-			for (Method method : methods) {
-				if (method.getName().equals(methodName) && methodParams.length == method.getParameterTypes().length) {
-					found = true;
-					//System.err.println("Potential match with: " + method.getName());
-					serialMethod = method;
-					serialMethod.setAccessible(true);
-					break;
+		/* Search for method (resolved once per signature; see MethodInvoker) */
+		invoker = MethodInvoker.get(targetClass, methodName, paramTypes);
+		serialMethod = invoker.getMethod();
+	}
+
+	/**
+	 * Declares methods which must complete successfully before this one runs
+	 * (if one fails, this method is skipped and counted as remaining).
+	 * @param methods
+	 * @return this (for chaining)
+	 */
+	public SerialMethod dependsOn(final SerialMethod... methods) {
+		for (SerialMethod method : methods) {
+			if (method != null && method != this && !dependencies.contains(method)) {
+				dependencies.add(method);
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Returns the name of this method
+	 * @return
+	 */
+	public String getSerialName() {
+		return serialName;
+	}
+
+	/**
+	 * Returns the methods this one depends on (declared with dependsOn)
+	 * @return
+	 */
+	public List<SerialMethod> getDependencies() {
+		return Collections.unmodifiableList(dependencies);
+	}
+
+	/**
+	 * Placeholder for the return value of another method, to use as a method parameter:
+	 *   new SerialMethod("total", calc, "sum", SerialMethod.result("load"));
+	 * The method is run after "load" and gets its return value.
+	 * Since the parameter type is unknown when the method is looked up, the method is found
+	 * by name and number of parameters.
+	 * @param serialName name of the method whose return value to pass
+	 * @return
+	 */
+	public static ResultRef result(final String serialName) {
+		return new ResultRef(serialName);
+	}
+
+	/**
+	 * Invokes the method (on a new instance of the class unless an instance was specified),
+	 * replacing the result() placeholders with the return values found in results
+	 * @param results return values of the other methods, by name
+	 * @return the return value of the method
+	 * @throws Exception
+	 */
+	public Object invoke(final Map<String, ?> results) throws Exception {
+		Object[] params = methodParams;
+		if (!resultNames.isEmpty()) {
+			params = methodParams.clone();
+			for (int i = 0; i < params.length; i++) {
+				if (params[i] instanceof ResultRef) {
+					params[i] = results.get(((ResultRef) params[i]).serialName);
 				}
 			}
-			if (!found)
-				throw new ParallelMethodException("NoSuchMethodException: " + e.getMessage());
 		}
+		/*
+		 * Note that a new instance is created for every method call if an object instance was not already specified
+		 * (through a cached constructor handle, so it is cheap).
+		 */
+		return invoker.invoke(serialObjInst, params);
+	}
+
+	/**
+	 * Returns true if the method returns a value
+	 * @return
+	 */
+	public boolean hasReturn() {
+		return void.class != serialMethod.getReturnType();
+	}
 
+	public String toString() {
+		return serialName;
+	}
+
+	/**
+	 * Marks a parameter to be replaced by the return value of another method (see result())
+	 */
+	public static final class ResultRef {
+		private final String serialName;
+
+		private ResultRef(final String serialName) {
+			this.serialName = serialName;
+		}
+
+		public String getSerialName() {
+			return serialName;
+		}
+
+		public String toString() {
+			return "result(" + serialName + ")";
+		}
 	}
-	
-}
\ No newline at end of file
+}
@@ -0,0 +1,233 @@
+package concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Sampling profiler behind MethodTimer.startSampling().
+ *
+ * Every interval the stacks of the sampled threads are taken in one ThreadMXBean call
+ * (a single safepoint for all threads) and added to a call tree and to a map of collapsed
+ * stacks.  WorkerThreads waiting for a task are skipped so the idle time does not drown
+ * the tasks' time.
+ *
+ * The reported overhead includes waiting for the safepoint: long loops without safepoint
+ * polls (counted loops on older JVMs) delay every sample, so use a longer interval there.
+ *
+ * @author TPatel
+ */
+final class StackSampler implements Runnable {
+	/** frames kept per stack (deeper frames, nearest the root, are dropped) */
+	static final int MAX_DEPTH = 128;
+
+	private final WorkerThreadPool pool;
+	private final Thread[] threads;
+	private final long intervalMillis;
+	private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+	private volatile boolean running = true;
+	private Thread samplerThread;
+
+	/** root of the call tree (children are the threads' outermost frames) */
+	private final Frame root = new Frame("root");
+	/** flame graph input: "outer;...;inner" -> samples */
+	private final HashMap<String, long[]> collapsed = new HashMap<String, long[]>();
+	private long samples;
+	/** time spent taking and recording the samples */
+	private long overheadNanos;
+
+	/**
+	 * @param pool samples the pool's current workers; null to sample the threads
+	 * @param threads
+	 * @param intervalMillis
+	 */
+	StackSampler(final WorkerThreadPool pool, final Thread[] threads, final long intervalMillis) {
+		this.pool = pool;
+		this.threads = threads;
+		this.intervalMillis = Math.max(1, intervalMillis);
+	}
+
+	/**
+	 * Starts the sampling thread
+	 */
+	void start() {
+		samplerThread = new Thread(this, "MyStackSampler");
+		samplerThread.setDaemon(true);
+		samplerThread.start();
+	}
+
+	/**
+	 * Stops sampling; the samples taken are kept
+	 */
+	void stop() {
+		running = false;
+		if (samplerThread != null) {
+			samplerThread.interrupt();
+		}
+	}
+
+	public void run() {
+		while (running) {
+			try {
+				Thread.sleep(intervalMillis);
+			} catch (InterruptedException e) {
+				break;	//stop() interrupts
+			}
+			sample();
+		}
+	}
+
+	/**
+	 * Takes one sample of every thread
+	 */
+	private void sample() {
+		final long start = System.nanoTime();
+		final Thread[] sampled = pool != null ? pool.getWorkerThreads() : threads;
+		final ArrayList<Thread> busy = new ArrayList<Thread>(sampled.length);
+		for (Thread t : sampled) {
+			if (t.isAlive() && !(t instanceof WorkerThread && !((WorkerThread) t).isWorking())) {
+				busy.add(t);
+			}
+		}
+		final long[] ids = new long[busy.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = busy.get(i).getId();
+		}
+		final ThreadInfo[] infos = ids.length == 0 ? new ThreadInfo[0] : threadBean.getThreadInfo(ids, MAX_DEPTH);
+
+		synchronized (this) {
+			for (ThreadInfo info : infos) {
+				if (info != null && info.getStackTrace().length > 0) {
+					record(info.getStackTrace());
+				}
+			}
+			overheadNanos += System.nanoTime() - start;
+		}
+	}
+
+	/**
+	 * Adds the stack (innermost frame first) to the call tree and the collapsed stacks
+	 * @param stack
+	 */
+	private void record(final StackTraceElement[] stack) {
+		samples++;
+		final StringBuilder key = new StringBuilder(stack.length * 24);
+		Frame node = root;
+		node.samples++;
+		for (int i = stack.length - 1; i >= 0; i--) {
+			final String name = frameName(stack[i]);
+			node = node.child(name);
+			node.samples++;
+			if (key.length() > 0) {
+				key.append(';');
+			}
+			key.append(name);
+		}
+		final String stackKey = key.toString();
+		final long[] count = collapsed.get(stackKey);
+		if (count == null) {
+			collapsed.put(stackKey, new long[] { 1 });
+		} else {
+			count[0]++;
+		}
+	}
+
+	/**
+	 * Returns "SimpleClassName.method" (nested classes keep their $ name)
+	 * @param element
+	 * @return
+	 */
+	private static String frameName(final StackTraceElement element) {
+		final String className = element.getClassName();
+		return className.substring(className.lastIndexOf('.') + 1) + "." + element.getMethodName();
+	}
+
+	/**
+	 * Returns the call tree, indented like MethodTimer.toString():
+	 * method: samples/estimated seconds [% of the samples]
+	 * @param newLine
+	 * @return
+	 */
+	synchronized String getCallTree(final String newLine) {
+		final StringBuilder str = new StringBuilder(newLine);
+		str.append("Sampled time: " + (samples * intervalMillis / 1000) + "s (Samples: " + samples + " every " + intervalMillis
+				+ "ms; Overhead: " + (overheadNanos / 1000000) + "ms)");
+		appendChildren(str, root, 1, newLine);
+		return str.toString();
+	}
+
+	private void appendChildren(final StringBuilder str, final Frame node, final int level, final String newLine) {
+		for (Frame child : node.sortedChildren()) {
+			str.append(newLine);
+			for (int i = 1; i < level; i++) {
+				str.append("   ");
+			}
+			str.append(child.name).append(": ").append(child.samples).append("/").append(child.samples * intervalMillis / 1000)
+					.append(" [").append(samples == 0 ? 0 : child.samples * 100 / samples).append("%]");
+			appendChildren(str, child, level + 1, newLine);
+		}
+	}
+
+	/**
+	 * Returns the collapsed stacks ("frame;frame;frame samples" per line, sorted),
+	 * the input format of flamegraph.pl and most flame graph viewers
+	 * @return
+	 */
+	synchronized String getCollapsedStacks() {
+		final TreeMap<String, long[]> sorted = new TreeMap<String, long[]>(collapsed);
+		final StringBuilder str = new StringBuilder(sorted.size() * 64);
+		for (Map.Entry<String, long[]> e : sorted.entrySet()) {
+			str.append(e.getKey()).append(' ').append(e.getValue()[0]).append('\n');
+		}
+		return str.toString();
+	}
+
+	/**
+	 * Node of the call tree
+	 */
+	private static final class Frame {
+		private final String name;
+		/** samples with this frame on the stack */
+		private long samples;
+		private HashMap<String, Frame> children;
+
+		private Frame(final String name) {
+			this.name = name;
+		}
+
+		private Frame child(final String childName) {
+			if (children == null) {
+				children = new HashMap<String, Frame>();
+			}
+			Frame child = children.get(childName);
+			if (child == null) {
+				child = new Frame(childName);
+				children.put(childName, child);
+			}
+			return child;
+		}
+
+		/**
+		 * Returns the children, most sampled first
+		 * @return
+		 */
+		private ArrayList<Frame> sortedChildren() {
+			if (children == null) {
+				return new ArrayList<Frame>(0);
+			}
+			final ArrayList<Frame> list = new ArrayList<Frame>(children.values());
+			Collections.sort(list, new Comparator<Frame>() {
+				public int compare(final Frame a, final Frame b) {
+					return a.samples == b.samples ? a.name.compareTo(b.name) : (a.samples > b.samples ? -1 : 1);
+				}
+			});
+			return list;
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package concurrent;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Collects row writes into JDBC batches, one per SQL statement, so many single-row
+ * INSERT/UPDATEs take a few round trips instead of one each.
+ *
+ * Each connection has its own batcher (tasks get it through BaseWorkTask.getBatcher()).
+ * Prepared statements are cached by SQL text, up to maxStatements per connection; beyond that
+ * the least recently used statement is closed (its pending rows, and those of the statements
+ * before it, are sent first), so dynamic SQL does not hold server cursors without limit.
+ * A statement's batch is sent once it holds batchSize rows, and every pending batch
+ * is sent before the connection commits (intermediate commits and commitWorkers()).
+ *
+ * Note: rows still pending are not visible to queries on the same connection; call flush()
+ * before reading back what was written.
+ *
+ * Rows are kept (as their parameter values) until their batch was sent successfully.  A task
+ * whose rows are still pending when it returns completes once they are written; if a batch fails,
+ * or the connection rolls back, every task with rows in it fails (see BatchedTask).  mark() and
+ * rollbackToMark() undo the rows of a failed task along with a rollback to a savepoint set at
+ * the mark: rows pending at the mark that were sent since are pending again afterwards.
+ *
+ * Used by a single thread at a time (the worker holding the connection).
+ *
+ * @author TPatel
+ */
+public final class StatementBatcher {
+	/** default number of rows per batch */
+	public static final int DEFAULT_BATCH_SIZE = 500;
+	/** default number of statements cached per connection */
+	public static final int DEFAULT_MAX_STATEMENTS = 50;
+
+	private final Connection conn;
+	/** statement cache (and pending batches), in the order the statements were first used */
+	private final Map<String, Batch> batches = new LinkedHashMap<String, Batch>();
+	private volatile int batchSize = DEFAULT_BATCH_SIZE;
+	private volatile int maxStatements = DEFAULT_MAX_STATEMENTS;
+	/** incremented on every statement lookup; orders the statements by last use */
+	private long uses = 0;
+
+	/** number of batches sent */
+	private long flushes = 0;
+	/** number of rows sent */
+	private long rows = 0;
+	/** denotes whether a mark is set (see mark()) */
+	private boolean marked = false;
+	/** rows of the running task; null until it adds one */
+	private BatchedTask current;
+
+	StatementBatcher(final Connection conn) {
+		this.conn = conn;
+	}
+
+	/**
+	 * Sets the number of rows per statement at which the batch is sent
+	 * @param size
+	 */
+	void setBatchSize(final int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Invalid batch size: " + size);
+		}
+		batchSize = size;
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of statements cached; the least recently used is closed beyond it
+	 * @param max
+	 */
+	void setMaxStatements(final int max) {
+		if (max < 1) {
+			throw new IllegalArgumentException("Invalid statement cache size: " + max);
+		}
+		maxStatements = max;
+	}
+
+	public int getMaxStatements() {
+		return maxStatements;
+	}
+
+	/**
+	 * Returns the cached prepared statement for the SQL (prepared on first use).
+	 * The statement may be closed once more than getMaxStatements() other statements were used since.
+	 * @param sql
+	 * @return
+	 * @throws SQLException
+	 */
+	public PreparedStatement prepare(final String sql) throws SQLException {
+		return batch(sql).stmt;
+	}
+
+	/**
+	 * Adds a row to the batch of the SQL statement; sends the batch if it reached the batch size
+	 * @param sql
+	 * @param params parameter values, in order (set with setObject when the batch is sent)
+	 * @throws SQLException
+	 */
+	public void addBatch(final String sql, final Object... params) throws SQLException {
+		final Batch batch = batch(sql);
+		if (current == null) {
+			current = new BatchedTask();
+		}
+		batch.rows.add(new Row(params.clone(), current));	//the caller may reuse the array
+		current.rowAdded();
+		if (batch.rows.size() >= batchSize) {
+			send(batch);
+		}
+	}
+
+	/**
+	 * Sends the pending rows of the SQL statement
+	 * @param sql
+	 * @throws SQLException
+	 */
+	public void flush(final String sql) throws SQLException {
+		final Batch batch = batches.get(sql);
+		if (batch != null && !batch.rows.isEmpty()) {
+			send(batch);
+		}
+	}
+
+	/**
+	 * Sends the pending rows of every statement (in the order the statements were first used)
+	 * @throws SQLException
+	 */
+	public void flush() throws SQLException {
+		for (Batch batch : batches.values()) {
+			if (!batch.rows.isEmpty()) {
+				send(batch);
+			}
+		}
+	}
+
+	/**
+	 * Returns number of rows added but not sent yet
+	 * @return
+	 */
+	public int getPendingCount() {
+		int pending = 0;
+		for (Batch batch : batches.values()) {
+			pending += batch.rows.size();
+		}
+		return pending;
+	}
+
+	/**
+	 * Returns number of batches sent
+	 * @return
+	 */
+	public long getFlushCount() {
+		return flushes;
+	}
+
+	/**
+	 * Returns number of rows sent
+	 * @return
+	 */
+	public long getRowCount() {
+		return rows;
+	}
+
+	/**
+	 * Called by the worker before a task runs: rows added from now on belong to the task
+	 */
+	void beginTask() {
+		current = null;
+	}
+
+	/**
+	 * Called by the worker after a task ran successfully
+	 * @return the task's rows if some are not written yet (or failed); null if all were sent
+	 */
+	BatchedTask endTask() {
+		final BatchedTask task = current;
+		current = null;
+		return task == null || task.isWritten() ? null : task;
+	}
+
+	/**
+	 * Marks the point rollbackToMark() returns to (before a task runs)
+	 */
+	void mark() {
+		for (Batch batch : batches.values()) {
+			batch.markedRows = batch.rows.size();
+			batch.resend = null;
+		}
+		marked = true;
+	}
+
+	/**
+	 * Drops the mark; rows of the mark sent since are final (their tasks may complete)
+	 */
+	void unmark() {
+		if (marked) {
+			for (Batch batch : batches.values()) {
+				if (batch.resend != null) {
+					for (Row row : batch.resend) {
+						row.owner.rowSent();
+					}
+				}
+				batch.markedRows = 0;
+				batch.resend = null;
+			}
+			marked = false;
+		}
+	}
+
+	/**
+	 * Restores the pending rows of the mark, after the connection was rolled back to a savepoint set with it:
+	 * rows added since are dropped, and rows pending at the mark that were sent since are pending again
+	 */
+	void rollbackToMark() {
+		for (Batch batch : batches.values()) {
+			final ArrayList<Row> restored = batch.resend != null ? batch.resend : new ArrayList<Row>(batch.markedRows);
+			restored.addAll(batch.rows.subList(0, batch.markedRows));
+			for (Row row : batch.rows.subList(batch.markedRows, batch.rows.size())) {
+				row.owner.rowDropped();
+			}
+			batch.rows = restored;
+			batch.markedRows = 0;
+			batch.resend = null;
+		}
+		marked = false;
+	}
+
+	/**
+	 * Drops the pending rows (on rollback); the tasks they belong to fail
+	 */
+	void clear() {
+		final SQLException rolledBack = new SQLException("Rolled back before the batched rows were committed");
+		for (Batch batch : batches.values()) {
+			drop(batch.rows, rolledBack);
+			if (batch.resend != null) {
+				drop(batch.resend, rolledBack);	//sent after the mark; undone by the rollback as well
+			}
+			batch.rows = new ArrayList<Row>();
+			batch.markedRows = 0;
+			batch.resend = null;
+		}
+		marked = false;
+	}
+
+	private static void drop(final ArrayList<Row> dropped, final Throwable cause) {
+		for (Row row : dropped) {
+			row.owner.rowDropped();
+			row.owner.failed(cause);
+		}
+	}
+
+	/**
+	 * Closes the cached statements
+	 */
+	void close() {
+		for (Iterator<Batch> it = batches.values().iterator(); it.hasNext(); ) {
+			try {
+				it.next().stmt.close();
+			} catch (SQLException e) {
+				//closing anyway
+			}
+			it.remove();
+		}
+	}
+
+	private Batch batch(final String sql) throws SQLException {
+		Batch batch = batches.get(sql);
+		if (batch == null) {
+			if (conn == null) {
+				throw new SQLException("No connection to prepare the statement with");
+			}
+			evictIfFull();
+			batch = new Batch(conn.prepareStatement(sql));
+			batches.put(sql, batch);
+		}
+		batch.lastUse = ++uses;
+		return batch;
+	}
+
+	/**
+	 * Closes the least recently used statement if the cache is full.  If it has pending rows, every
+	 * pending batch is sent first (in order, as the rows may depend on rows of earlier statements).
+	 * Statements holding rows of the mark are kept, so the cache may exceed its size while a task runs.
+	 * @throws SQLException if sending the pending rows failed
+	 */
+	private void evictIfFull() throws SQLException {
+		if (batches.size() < maxStatements) {
+			return;
+		}
+		String eldest = null;
+		Batch lru = null;
+		for (Map.Entry<String, Batch> e : batches.entrySet()) {
+			final Batch b = e.getValue();
+			if (b.resend == null && (lru == null || b.lastUse < lru.lastUse)) {
+				eldest = e.getKey();
+				lru = b;
+			}
+		}
+		if (lru == null) {
+			return;
+		}
+		if (!lru.rows.isEmpty()) {
+			flush();
+			if (lru.resend != null) {
+				return;	//its rows were pending at the mark
+			}
+		}
+		batches.remove(eldest);
+		try {
+			lru.stmt.close();
+		} catch (SQLException e) {
+			//closing anyway
+		}
+	}
+
+	private void send(final Batch batch) throws SQLException {
+		final ArrayList<Row> pending = batch.rows;
+		try {
+			for (Row row : pending) {
+				final Object[] params = row.params;
+				for (int i = 0; i < params.length; i++) {
+					batch.stmt.setObject(i + 1, params[i]);
+				}
+				batch.stmt.addBatch();
+			}
+			batch.stmt.executeBatch();
+		} catch (SQLException e) {
+			try {
+				batch.stmt.clearBatch();	//most drivers do, but not all
+			} catch (SQLException ignore) {
+				//statement is unusable; the failure is reported
+			}
+			//the rows are not written: every task with rows in the batch fails, not only the running one
+			batch.rows = new ArrayList<Row>();
+			batch.markedRows = 0;
+			drop(pending, e);
+			throw e;
+		}
+		batch.rows = new ArrayList<Row>();
+		int sent = 0;
+		if (batch.markedRows > 0) {
+			//rows of the mark; final once the mark is dropped, sent again if the connection rolls back to it
+			if (batch.resend == null) {
+				batch.resend = new ArrayList<Row>(pending.subList(0, batch.markedRows));
+			} else {
+				batch.resend.addAll(pending.subList(0, batch.markedRows));
+			}
+			sent = batch.markedRows;
+			batch.markedRows = 0;
+		}
+		for (; sent < pending.size(); sent++) {
+			pending.get(sent).owner.rowSent();
+		}
+		flushes++;
+		rows += pending.size();
+	}
+
+	/**
+	 * A cached statement and its pending rows
+	 */
+	private static final class Batch {
+		private final PreparedStatement stmt;
+		/** rows not sent yet */
+		private ArrayList<Row> rows = new ArrayList<Row>();
+		/** leading rows of rows that were pending at the mark */
+		private int markedRows = 0;
+		/** rows pending at the mark that were sent since; null if none */
+		private ArrayList<Row> resend;
+		/** value of uses when last looked up */
+		private long lastUse;
+
+		private Batch(final PreparedStatement stmt) {
+			this.stmt = stmt;
+		}
+	}
+
+	/**
+	 * Parameter values of a row and the task that added it
+	 */
+	private static final class Row {
+		private final Object[] params;
+		private final BatchedTask owner;
+
+		private Row(final Object[] params, final BatchedTask owner) {
+			this.params = params;
+			this.owner = owner;
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package concurrent;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Work-stealing task buffer: every registered worker owns a local deque.
+ *
+ * put() places the task on the deque of the submitting worker (when a task queues
+ * follow-up work) or else on the next worker's deque in round-robin order.
+ * A worker takes from the head of its own deque; when empty it steals from the
+ * tail of its peers, so workers only contend on a deque when work is unbalanced.
+ *
+ * Tasks are still run by whichever worker takes them, so the worker's connection and
+ * TimerUtil are used exactly as with the shared buffers.
+ *
+ * Overflow semantics are the same as MonitorTaskBuffer, applied to the total
+ * number of tasks across all deques.
+ *
+ * @author TPatel
+ */
+final class StealingTaskBuffer implements TaskBuffer {
+	/** upper bound for a single park; guards against a signal delivered to a thread that did not park */
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** size of task queue before overflow is triggered */
+	private final int queueSize;
+	/** number of tasks to drain down to before allowing for tasks to resume queuing */
+	private final double lowWater;
+
+	/** deque owned by each registered worker */
+	private final Map<Thread, WorkerDeque> owned = new ConcurrentHashMap<Thread, WorkerDeque>();
+	/** same deques, indexed for round-robin distribution and stealing */
+	private final List<WorkerDeque> deques = new CopyOnWriteArrayList<WorkerDeque>();
+	/** holds tasks queued while no worker is registered and tasks left behind by removed workers */
+	private final WorkerDeque inbox = new WorkerDeque();
+
+	/** total number of tasks across all deques */
+	private final AtomicInteger count = new AtomicInteger();
+	private final AtomicInteger nextDeque = new AtomicInteger();
+
+	private final WaitList workers = new WaitList();
+	private final WaitList producers = new WaitList();
+
+	private volatile boolean mIsShutdown = false;
+	private volatile boolean isOverFlow = false;
+
+	StealingTaskBuffer(final int queueSize, final double produceThreshhold) {
+		this.queueSize = queueSize;
+		this.lowWater = produceThreshhold * queueSize;
+	}
+
+	public boolean isShutdown() {
+		return mIsShutdown;
+	}
+
+	public void shutdown() {
+		mIsShutdown = true;
+		workers.signalAll();
+		producers.signalAll();
+	}
+
+	public void register(final Thread worker) {
+		final WorkerDeque deque = new WorkerDeque();
+		owned.put(worker, deque);
+		deques.add(deque);
+	}
+
+	/**
+	 * Removes the worker's deque; any tasks left in it are moved to the inbox for the other workers
+	 */
+	public void unregister(final Thread worker) {
+		final WorkerDeque deque = owned.remove(worker);
+		if (deque != null) {
+			deques.remove(deque);
+			deque.closed = true;	//producers that selected the deque before now move their task themselves (see place())
+			BaseWorkTask task;
+			while ((task = deque.pollFirst()) != null) {
+				inbox.offerLast(task);
+			}
+			workers.signalAll();
+		}
+	}
+
+	public void put(final BaseWorkTask task) {
+		awaitOverflow();
+
+		count.incrementAndGet();	//count first so a parking worker never misses it
+		place(selectDeque(), task);
+
+		//wake one waiting worker; it will steal the task if it was placed on a busy worker's deque
+		if (workers.hasWaiters()) {
+			workers.signalOne();
+		}
+	}
+
+	/**
+	 * Spreads the tasks over the workers' deques in contiguous chunks (or places all of them
+	 * on the submitting worker's deque).
+	 */
+	public void putAll(final Collection<? extends BaseWorkTask> tasks) {
+		awaitOverflow();
+
+		final int size = tasks.size();
+		final int chunk = Math.max(1, size / Math.max(1, deques.size()));
+		count.addAndGet(size);	//count first so a parking worker never misses them
+		WorkerDeque target = null;
+		int placed = 0;
+		for (BaseWorkTask task : tasks) {
+			if (placed++ % chunk == 0) {
+				target = selectDeque();
+			}
+			place(target, task);
+		}
+
+		//wake up to one waiting worker per task
+		for (int i = placed; i > 0 && workers.hasWaiters(); i--) {
+			workers.signalOne();
+		}
+	}
+
+	/**
+	 * If overflow point reached, then park until the workers drain the deques to the lower threshhold
+	 */
+	private void awaitOverflow() {
+		if (count.get() > queueSize) {	//check if threshold reached
+			isOverFlow = true;
+			//re-check the count after setting the flag: the workers may have drained the deques before seeing it
+			while (isOverFlow && count.get() > lowWater && !mIsShutdown) {
+				producers.enlist();
+				try {
+					if (isOverFlow && count.get() > lowWater && !mIsShutdown) {
+						producers.park(PARK_NANOS);
+					}
+				} finally {
+					producers.delist();
+				}
+			}
+			if (isOverFlow && count.get() <= lowWater) {
+				isOverFlow = false;
+				producers.signalAll();
+			}
+		}
+	}
+
+	/**
+	 * Adds the task to the deque; if the deque's worker was unregistered meanwhile (after its
+	 * leftovers were moved), the task is moved to the inbox so it is not stranded
+	 * @param deque
+	 * @param task
+	 */
+	private void place(final WorkerDeque deque, final BaseWorkTask task) {
+		deque.offerLast(task);
+		if (deque.closed && deque.remove(task)) {
+			inbox.offerLast(task);
+			workers.signalAll();
+		}
+	}
+
+	/**
+	 * Returns the submitting worker's deque, or the next deque in round-robin order
+	 * @return
+	 */
+	private WorkerDeque selectDeque() {
+		final WorkerDeque own = owned.get(Thread.currentThread());
+		if (own != null) {
+			return own;
+		}
+		while (true) {
+			final int size = deques.size();
+			if (size == 0) {
+				return inbox;
+			}
+			try {
+				return deques.get((nextDeque.getAndIncrement() & Integer.MAX_VALUE) % size);
+			} catch (IndexOutOfBoundsException e) {
+				//a worker was unregistered in between; pick again
+			}
+		}
+	}
+
+	public int size() {
+		return count.get();
+	}
+
+	public BaseWorkTask take() throws InterruptedException {
+		final WorkerDeque own = owned.get(Thread.currentThread());
+		for (;;) {
+			BaseWorkTask result = own == null ? null : own.pollFirst();
+			if (result == null) {
+				result = inbox.pollFirst();
+			}
+			if (result == null) {
+				result = steal(own);
+			}
+
+			if (result != null) {
+				afterTake(1);
+				return result;
+			}
+			if (!awaitTask()) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Drains up to max tasks from the worker's own deque (one lock acquisition);
+	 * falls back to the inbox and then to stealing from peers.
+	 */
+	public int takeBatch(final List<BaseWorkTask> batch, final int max) throws InterruptedException {
+		final WorkerDeque own = owned.get(Thread.currentThread());
+		for (;;) {
+			int taken = own == null ? 0 : own.drainTo(batch, max);
+			if (taken == 0) {
+				taken = inbox.drainTo(batch, max);
+			}
+			if (taken == 0) {
+				final BaseWorkTask result = steal(own);
+				if (result != null) {
+					batch.add(result);
+					taken = 1;
+				}
+			}
+
+			if (taken > 0) {
+				afterTake(taken);
+				return taken;
+			}
+			if (!awaitTask()) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Updates the task count; if low threshhold reached, signal producers to add tasks
+	 * @param taken
+	 */
+	private void afterTake(final int taken) {
+		final int remaining = count.addAndGet(-taken);
+		if (isOverFlow && remaining <= lowWater) {
+			isOverFlow = false;
+			producers.signalAll();
+		}
+	}
+
+	/**
+	 * Parks while there is nothing to run or steal
+	 * @return false if shutdown was requested
+	 * @throws InterruptedException
+	 */
+	private boolean awaitTask() throws InterruptedException {
+		if (mIsShutdown) {
+			isOverFlow = false;
+			return false;
+		}
+
+		workers.enlist();
+		try {
+			if (count.get() == 0 && !mIsShutdown) {
+				workers.park(PARK_NANOS);
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+		} finally {
+			workers.delist();
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a task from the tail of a peer's deque, starting at a different peer each time
+	 * @param own the deque of the stealing worker (skipped)
+	 * @return null if all peers are empty
+	 */
+	private BaseWorkTask steal(final WorkerDeque own) {
+		final Object[] peers = deques.toArray();
+		final int start = (nextDeque.get() & Integer.MAX_VALUE);
+		for (int i = 0; i < peers.length; i++) {
+			final WorkerDeque victim = (WorkerDeque) peers[(start + i) % peers.length];
+			if (victim != own) {
+				final BaseWorkTask task = victim.pollLast();
+				if (task != null) {
+					return task;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Deque owned by a worker; closed once the worker is unregistered
+	 */
+	private static final class WorkerDeque extends LinkedBlockingDeque<BaseWorkTask> {
+		private static final long serialVersionUID = 1L;
+		private volatile boolean closed;
+	}
+}
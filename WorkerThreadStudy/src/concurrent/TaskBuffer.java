@@ -0,0 +1,75 @@
+package concurrent;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Storage strategy used by WorkQueue to hold the tasks that are waiting to be worked on.
+ *
+ * Implementations are responsible for blocking:
+ *  - put() blocks the producer once the overflow size is exceeded, until the buffer
+ *    drains down to the produce threshhold (see WorkQueue.PRODUCE_THRESHHOLD)
+ *  - take() blocks the worker until a task is available or shutdown is requested
+ *
+ * @author TPatel
+ */
+public interface TaskBuffer {
+
+	/**
+	 * Adds the task; blocks while the buffer is in overflow.
+	 * @param task
+	 */
+	void put(BaseWorkTask task);
+
+	/**
+	 * Returns the next task; blocks until a task becomes available.
+	 * Returns null once shutdown has been requested and the buffer is empty.
+	 * @return
+	 * @throws InterruptedException
+	 */
+	BaseWorkTask take() throws InterruptedException;
+
+	/**
+	 * Adds all the tasks with a single overflow check and a single wake up of the workers.
+	 * @param tasks
+	 */
+	void putAll(Collection<? extends BaseWorkTask> tasks);
+
+	/**
+	 * Moves up to max tasks into batch; blocks until at least one task becomes available.
+	 * Returns 0 once shutdown has been requested and the buffer is empty.
+	 * @param batch list to add the tasks to
+	 * @param max
+	 * @return number of tasks added to batch
+	 * @throws InterruptedException
+	 */
+	int takeBatch(List<BaseWorkTask> batch, int max) throws InterruptedException;
+
+	/**
+	 * Returns number of tasks waiting to be worked on
+	 * @return
+	 */
+	int size();
+
+	/**
+	 * Marks the buffer as shutdown and wakes all waiting workers/producers
+	 */
+	void shutdown();
+
+	/**
+	 * @return true if shutdown was requested
+	 */
+	boolean isShutdown();
+
+	/**
+	 * Called before a worker starts taking tasks from the buffer
+	 * @param worker
+	 */
+	void register(Thread worker);
+
+	/**
+	 * Called once a worker stops taking tasks from the buffer
+	 * @param worker
+	 */
+	void unregister(Thread worker);
+}
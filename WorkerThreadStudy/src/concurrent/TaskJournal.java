@@ -0,0 +1,256 @@
+package concurrent;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of the names of completed tasks, used to restart a failed run
+ * without redoing the finished work (see WorkerThreadPool.setJournal).
+ *
+ * Record layout: [int length][int crc32][length bytes of UTF-8 task name].
+ * Records are written into a memory-mapped region of the file (no system call per
+ * record); when the region is full the next one is mapped.  A flusher thread forces
+ * the region to disk every flush interval, so the cost of the fsync is shared by all
+ * the records appended meanwhile (group commit).  A record is therefore durable at
+ * most one flush interval after append(); call flush() to force it immediately.
+ *
+ * On open the existing records are replayed; the replay stops at the first
+ * zero length (unused part of the last region) or torn/corrupt record, and
+ * the file is truncated there.
+ *
+ * @author TPatel
+ */
+public final class TaskJournal {
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	/** size of each mapped region */
+	private static final int REGION_SIZE = 4 * 1024 * 1024;
+	/** bytes before the name in a record */
+	private static final int HEADER_SIZE = 8;
+	/** longest name accepted (a longer length in the file means corruption) */
+	private static final int MAX_NAME_BYTES = 64 * 1024;
+	/** default interval between forces */
+	public static final long DEFAULT_FLUSH_MILLIS = 10;
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	/** names of the tasks recorded (replayed + appended) */
+	private final Set<String> completed = ConcurrentHashMap.newKeySet();
+
+	/** region being appended to (guarded by this) */
+	private MappedByteBuffer region;
+	/** file offset of the region */
+	private long regionStart;
+	/** denotes whether records were appended since the last force */
+	private volatile boolean dirty = false;
+	private volatile boolean closed = false;
+	private final long flushMillis;
+	private final Thread flusher;
+	private final CRC32 crc = new CRC32();
+
+	/**
+	 * Opens (or creates) the journal and replays its records
+	 * @param file
+	 * @throws IOException
+	 */
+	public TaskJournal(final File file) throws IOException {
+		this(file, DEFAULT_FLUSH_MILLIS);
+	}
+
+	/**
+	 * Opens (or creates) the journal and replays its records
+	 * @param file
+	 * @param flushMillis max time between an append and its force to disk
+	 * @throws IOException
+	 */
+	public TaskJournal(final File file, final long flushMillis) throws IOException {
+		if (flushMillis <= 0) {
+			throw new IllegalArgumentException("Invalid flush interval: " + flushMillis);
+		}
+		this.file = file;
+		this.flushMillis = flushMillis;
+		final long end = file.exists() ? replay(file, completed) : 0;
+
+		raf = new RandomAccessFile(file, "rw");
+		channel = raf.getChannel();
+		channel.truncate(end);	//drop the torn tail / unused part of the last region
+		map(end);
+
+		flusher = new Thread(new Runnable() {
+			public void run() {
+				flushLoop();
+			}
+		}, "MyJournalFlusher");
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Reads the valid records into names
+	 * @param file
+	 * @param names
+	 * @return file offset after the last valid record
+	 * @throws IOException
+	 */
+	private static long replay(final File file, final Set<String> names) throws IOException {
+		final CRC32 check = new CRC32();
+		long valid = 0;
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+		try {
+			byte[] buf = new byte[256];
+			while (true) {
+				final int len = in.readInt();
+				if (len <= 0 || len > MAX_NAME_BYTES) {
+					break;	//end of records (zero filled) or corruption
+				}
+				final int sum = in.readInt();
+				if (buf.length < len) {
+					buf = new byte[len];
+				}
+				in.readFully(buf, 0, len);
+				check.reset();
+				check.update(buf, 0, len);
+				if ((int) check.getValue() != sum) {
+					break;	//torn write
+				}
+				names.add(new String(buf, 0, len, UTF8));
+				valid += HEADER_SIZE + len;
+			}
+		} catch (EOFException e) {
+			//last record incomplete
+		} finally {
+			in.close();
+		}
+		return valid;
+	}
+
+	/**
+	 * Maps the region starting at the offset (grows the file)
+	 * @param start
+	 * @throws IOException
+	 */
+	private void map(final long start) throws IOException {
+		regionStart = start;
+		region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+	}
+
+	/**
+	 * Returns true if the task was recorded as completed (in this or a previous run)
+	 * @param name
+	 * @return
+	 */
+	public boolean isCompleted(final String name) {
+		return name != null && completed.contains(name);
+	}
+
+	/**
+	 * Returns number of tasks recorded as completed
+	 * @return
+	 */
+	public int getCompletedCount() {
+		return completed.size();
+	}
+
+	/**
+	 * Records a completed task (durable within the flush interval)
+	 * @param name
+	 * @throws IOException
+	 */
+	public synchronized void append(final String name) throws IOException {
+		if (closed) {
+			throw new IOException("Journal " + file + " is closed");
+		}
+		final byte[] bytes = name.getBytes(UTF8);
+		if (bytes.length == 0 || bytes.length > MAX_NAME_BYTES) {
+			throw new IllegalArgumentException("Invalid task name length: " + bytes.length);
+		}
+		if (region.remaining() < HEADER_SIZE + bytes.length) {
+			region.force();
+			map(regionStart + region.position());
+		}
+		crc.reset();
+		crc.update(bytes, 0, bytes.length);
+		region.putInt(bytes.length);
+		region.putInt((int) crc.getValue());
+		region.put(bytes);
+		completed.add(name);
+		dirty = true;
+	}
+
+	/**
+	 * Records completed tasks
+	 * @param names
+	 * @throws IOException
+	 */
+	public synchronized void appendAll(final Collection<String> names) throws IOException {
+		for (String name : names) {
+			append(name);
+		}
+	}
+
+	/**
+	 * Forces the appended records to disk;
+	 * appends are not blocked meanwhile (they land in the same mapped region)
+	 */
+	public void flush() {
+		final MappedByteBuffer toForce;
+		synchronized (this) {
+			if (!dirty || region == null) {
+				return;
+			}
+			dirty = false;
+			toForce = region;
+		}
+		toForce.force();
+	}
+
+	private void flushLoop() {
+		while (!closed) {
+			try {
+				Thread.sleep(flushMillis);
+			} catch (InterruptedException e) {
+				return;	//close() interrupts
+			}
+			if (dirty) {
+				flush();
+			}
+		}
+	}
+
+	/**
+	 * Flushes, stops the flusher and trims the file to the records written
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		flush();
+		closed = true;
+		flusher.interrupt();
+		final long end = regionStart + region.position();
+		region = null;
+		try {
+			channel.truncate(end);	//may fail while the region is still mapped (Windows); replay handles the zero tail
+		} catch (IOException e) {
+			//ignore
+		}
+		raf.close();
+	}
+
+	public String toString() {
+		return "TaskJournal[" + file + ", completed=" + getCompletedCount() + "]";
+	}
+}
@@ -0,0 +1,191 @@
+package concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pool of recycled task objects (replaces the Vector based idle queue).
+ *
+ * Two tiers:
+ *  - a small per-thread cache, used by threads that both acquire and release tasks
+ *    (e.g. a task queuing follow-up tasks); no synchronization at all
+ *  - a shared lock-free MpmcRing, used for the usual hand-off where the producer
+ *    acquires and the workers release
+ *
+ * When the pool is exhausted, acquire() either grows it with template.copy()
+ * (default) or blocks until a task is released (setGrowOnExhaust(false)).
+ *
+ * @author TPatel
+ */
+public final class TaskPool {
+	/** max tasks held per thread */
+	private static final int LOCAL_CACHE_SIZE = 16;
+	/** upper bound for a single park while waiting for a released task */
+	private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	private final BaseWorkTask template;
+	private final MpmcRing<BaseWorkTask> shared;
+	private final ThreadLocal<LocalCache> local = new ThreadLocal<LocalCache>() {
+		protected LocalCache initialValue() {
+			return new LocalCache();
+		}
+	};
+	/** threads waiting for a task (only when not growing) */
+	private final WaitList waiters = new WaitList();
+	private volatile boolean growOnExhaust = true;
+
+	private final LongAdder localHits = new LongAdder();
+	private final LongAdder sharedHits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder discarded = new LongAdder();
+
+	/**
+	 * Creates the pool with size copies of the template
+	 * @param template
+	 * @param size
+	 */
+	public TaskPool(final BaseWorkTask template, final int size) {
+		this.template = template;
+		//room for tasks added later (new workers) and for tasks created on exhaustion
+		shared = new MpmcRing<BaseWorkTask>(Math.max(size, 1) * 4);
+		for (int i = 0; i < size; i++) {
+			shared.offer(template.copy());
+		}
+	}
+
+	/**
+	 * Denotes whether acquire() creates a new task (true) or blocks (false) when the pool is exhausted
+	 * @param grow
+	 */
+	public void setGrowOnExhaust(final boolean grow) {
+		growOnExhaust = grow;
+	}
+
+	/**
+	 * Gets a task object from the pool
+	 * @return
+	 */
+	public BaseWorkTask acquire() {
+		final LocalCache cache = local.get();
+		cache.acquiring = true;
+		if (cache.count > 0) {
+			localHits.increment();
+			final BaseWorkTask task = cache.tasks[--cache.count];
+			cache.tasks[cache.count] = null;
+			return task;
+		}
+
+		BaseWorkTask task = shared.poll();
+		if (task != null) {
+			sharedHits.increment();
+			return task;
+		}
+
+		misses.increment();
+		if (growOnExhaust) {
+			return template.copy();
+		}
+		while ((task = shared.poll()) == null) {
+			waiters.enlist();
+			try {
+				if (shared.isEmpty()) {
+					waiters.park(PARK_NANOS);
+				}
+			} finally {
+				waiters.delist();
+			}
+		}
+		return task;
+	}
+
+	/**
+	 * Returns a task object to the pool
+	 * @param task
+	 */
+	public void release(final BaseWorkTask task) {
+		//only cache locally for threads that also acquire; otherwise the tasks would never be reused
+		final LocalCache cache = local.get();
+		if (cache.acquiring && cache.count < LOCAL_CACHE_SIZE && !waiters.hasWaiters()) {
+			cache.tasks[cache.count++] = task;
+			return;
+		}
+		add(task);
+	}
+
+	/**
+	 * Adds a task object to the shared tier
+	 * @param task
+	 */
+	public void add(final BaseWorkTask task) {
+		if (shared.offer(task)) {
+			if (waiters.hasWaiters()) {
+				waiters.signalOne();
+			}
+		} else {
+			discarded.increment();	//pool grew past its capacity; let GC have it
+		}
+	}
+
+	/**
+	 * Adds a new copy of the template to the pool
+	 */
+	public void addNew() {
+		add(template.copy());
+	}
+
+	/**
+	 * Returns (approximate) number of tasks available in the shared tier
+	 * @return
+	 */
+	public int size() {
+		return shared.size();
+	}
+
+	/**
+	 * Returns number of acquire() calls served from the pool
+	 * @return
+	 */
+	public long getHitCount() {
+		return localHits.sum() + sharedHits.sum();
+	}
+
+	/**
+	 * Returns number of acquire() calls served from the calling thread's cache
+	 * @return
+	 */
+	public long getLocalHitCount() {
+		return localHits.sum();
+	}
+
+	/**
+	 * Returns number of acquire() calls that found the pool exhausted
+	 * (and either created a new task or blocked)
+	 * @return
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns number of released tasks dropped because the pool was full
+	 * @return
+	 */
+	public long getDiscardedCount() {
+		return discarded.sum();
+	}
+
+	public String toString() {
+		return "TaskPool[size=" + size() + ", hits=" + getHitCount() + " (local " + getLocalHitCount() + ")"
+				+ ", misses=" + getMissCount() + ", discarded=" + getDiscardedCount() + "]";
+	}
+
+	/**
+	 * Per-thread stack of tasks
+	 */
+	private static final class LocalCache {
+		private final BaseWorkTask[] tasks = new BaseWorkTask[LOCAL_CACHE_SIZE];
+		private int count;
+		/** set once the thread acquires; release() only caches for such threads */
+		private boolean acquiring;
+	}
+}
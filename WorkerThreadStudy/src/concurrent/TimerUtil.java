@@ -8,10 +8,8 @@ package concurrent;
 
 import java.io.PrintStream;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.TreeMap;
 
 /**
  * @author TPatel
@@ -23,6 +21,10 @@ import java.util.TreeMap;
  * After the call that you want to time, call the incrementTimings() method with a key and the start time.
  * 
  * printTimes() can be used to print the stored timings.
+ *
+ * The timings are kept in an open-addressing table of primitive arrays (keys are
+ * usually string literals, so compared by reference first); incrementTimings() neither
+ * boxes nor allocates once a key has been seen.
  */
 public class TimerUtil {
 	public static final int LOG_BEGIN = 1;	//logs beginning (no \n)
@@ -30,12 +32,15 @@ public class TimerUtil {
 	public static final int LOG_END = 3; //logs end (w \n)
 	public static final int LOG_ALL = 0; //logs all (w \n)
 
-	private final TreeMap timeMap = new TreeMap();	//holds the timings
-	private final HashMap qtyMap = new HashMap();		//holds the qty
+	private static final int INITIAL_CAPACITY = 16;	//power of two
+
+	private String[] keys = new String[INITIAL_CAPACITY];	//null = free slot
+	private int[] qtys = new int[INITIAL_CAPACITY];		//holds the qty
+	private long[] times = new long[INITIAL_CAPACITY];	//holds the timings
+	private int size;
 	private final SimpleDateFormat sdf = new SimpleDateFormat("dd-MMM-yyyy");
 
 	public long globalStartTime;	//holds the time that the obj was created
-	private long endDt;
 	private boolean loggingEnabled = false;	//by default turned off
 	private PrintStream out = null;
 
@@ -69,15 +74,23 @@ public class TimerUtil {
 	}
 
 	/**
-	 * Prints the timings held in the qty and time maps
+	 * Prints the timings held in the qty and time tables (sorted by key)
 	 *
 	 */
 	public void printTimes() {
-		  if (loggingEnabled && out != null && qtyMap != null && timeMap != null) {
+		  if (loggingEnabled && out != null) {
 				debugLog("Timings:");
-				for (final Iterator iter = timeMap.keySet().iterator(); iter.hasNext(); ) {
-					  final String key = (String) iter.next();
-					  out.println("  " + key + ": " + ((Integer)qtyMap.get(key)).intValue() + " / " + ((Long)timeMap.get(key)).longValue()/1000);
+				final String[] sorted = new String[size];
+				int count = 0;
+				for (int i = 0; i < keys.length; i++) {
+					if (keys[i] != null) {
+						sorted[count++] = keys[i];
+					}
+				}
+				Arrays.sort(sorted);
+				for (int i = 0; i < sorted.length; i++) {
+					  final int slot = slotOf(sorted[i]);
+					  out.println("  " + sorted[i] + ": " + qtys[slot] + " / " + times[slot]/1000);
 				}
 		  }
 	}
@@ -89,48 +102,22 @@ public class TimerUtil {
 	 */
 	public void incrementTimings(final String key, final long startDt) {
 		if (loggingEnabled) {
-		  endDt = getTime();
- 
-		  Integer intQty = (Integer) qtyMap.get(key);
-		  if (intQty == null) {
-				intQty = new Integer(0);
-		  }
-		  qtyMap.put(key, new Integer(intQty.intValue() + 1));
- 
-		  Long accmTime = (Long) timeMap.get(key);	//gets the cumulative time
-		  if (accmTime == null) {
-				accmTime = new Long(0);
-		  }
-		  timeMap.put(key, new Long(accmTime.longValue() + endDt - startDt));
+			final long endDt = getTime();
+			final int slot = slotOf(key);
+			qtys[slot]++;
+			times[slot] += endDt - startDt;	//cumulative time
 		}
 	}
 
 	public void incrementTimings(TimerUtil timer) {
 		if (loggingEnabled) {
-			Iterator iter = timer.qtyMap.keySet().iterator();
-			String key;
-			Integer intQty;
-			Long accmTime;
-			while (iter.hasNext()) {
-				key = (String)iter.next();
-				int qty = ((Integer)timer.qtyMap.get(key)).intValue();
-				long time = ((Long)timer.timeMap.get(key)).longValue();
-
-				intQty = (Integer) qtyMap.get(key);
-				if (intQty == null) {
-					  intQty = new Integer(qty);
-				} else {
-					intQty = new Integer(intQty.intValue() + qty);
+			final String[] otherKeys = timer.keys;
+			for (int i = 0; i < otherKeys.length; i++) {
+				if (otherKeys[i] != null) {
+					final int slot = slotOf(otherKeys[i]);
+					qtys[slot] += timer.qtys[i];
+					times[slot] += timer.times[i];
 				}
-				qtyMap.put(key, intQty);
- 
-				accmTime = (Long) timeMap.get(key);	//gets the cumulative time
-				if (accmTime == null) {
-					  accmTime = new Long(time);
-				} else {
-					accmTime = new Long(accmTime.longValue() + time);
-				}
-				timeMap.put(key, accmTime);
 			}
 		}
 	}
@@ -146,6 +133,55 @@ public class TimerUtil {
 			}
 		}
 	}
+	/**
+	 * Returns the slot of the key; adds the key (zero timings) if not present
+	 * @param key
+	 * @return
+	 */
+	private int slotOf(final String key) {
+		final int mask = keys.length - 1;
+		int h = key.hashCode();
+		h ^= h >>> 16;
+		for (int i = h & mask; ; i = (i + 1) & mask) {	//linear probing
+			final String k = keys[i];
+			if (k == key) {
+				return i;
+			}
+			if (k == null) {
+				if ((size + 1) * 2 > keys.length) {	//keep load factor <= 0.5
+					grow();
+					return slotOf(key);
+				}
+				keys[i] = key;
+				size++;
+				return i;
+			}
+			if (k.equals(key)) {
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * Doubles the table and re-inserts the keys
+	 */
+	private void grow() {
+		final String[] oldKeys = keys;
+		final int[] oldQtys = qtys;
+		final long[] oldTimes = times;
+		keys = new String[oldKeys.length * 2];
+		qtys = new int[keys.length];
+		times = new long[keys.length];
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				final int slot = slotOf(oldKeys[i]);
+				qtys[slot] = oldQtys[i];
+				times[slot] = oldTimes[i];
+			}
+		}
+	}
+
 	/**
 	 * Returns the current system time (long)
 	 * @return
@@ -0,0 +1,59 @@
+package concurrent;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Looks up virtual thread support (Java 21+) reflectively so the framework still
+ * compiles and runs on older JVMs.
+ *
+ * @author TPatel
+ */
+final class VirtualThreads {
+	private static final boolean AVAILABLE = newFactory("probe") != null;
+
+	private VirtualThreads() { }
+
+	/**
+	 * @return true if the running JVM supports virtual threads
+	 */
+	static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	/**
+	 * Returns a factory creating virtual threads, or null if not supported.
+	 * Equivalent to Thread.ofVirtual().name(prefix, 0).factory()
+	 * @param prefix thread name prefix
+	 * @return
+	 */
+	static ThreadFactory newFactory(final String prefix) {
+		try {
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, Long.valueOf(0));
+			return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+		} catch (Exception e) {
+			return null;	//pre Java 21
+		}
+	}
+
+	/**
+	 * Returns an executor starting a new virtual thread per task, or null if not supported.
+	 * Equivalent to Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix, 0).factory())
+	 * @param prefix thread name prefix
+	 * @return
+	 */
+	static ExecutorService newThreadPerTaskExecutor(final String prefix) {
+		final ThreadFactory factory = newFactory(prefix);
+		if (factory == null) {
+			return null;
+		}
+		try {
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
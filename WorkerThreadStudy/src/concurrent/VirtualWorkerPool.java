@@ -0,0 +1,354 @@
+package concurrent;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import externals.TIERSBatchController;
+import externals.TIERSBatchException;
+
+/**
+ * Variant of WorkerThreadPool for I/O bound tasks.
+ *
+ * Every task runs on its own virtual thread, so the number of concurrent tasks is not
+ * capped by a worker count.  What is bounded instead is the scarce resource: a task
+ * holds one of the pool's connections only while it runs, guarded by a semaphore
+ * (maxConnections permits).  The number of queued/running tasks is bounded by
+ * maxInFlight; execute() blocks once it is reached (same back-pressure as the task queue).
+ *
+ * On JVMs without virtual threads (pre Java 21) the tasks run on maxConnections
+ * platform threads instead.
+ *
+ * To use (same as WorkerThreadPool):
+ *   VirtualWorkerPool pool = new VirtualWorkerPool(batchController, MAX_CONNECTIONS, MAX_IN_FLIGHT, task);
+ *   task = pool.getIdle(); <init task>; pool.execute(task);
+ *   pool.gracefulShutdown(true);
+ *   pool.commitWorkers(WorkerThreadPool.COMMIT, WorkerThreadPool.CLOSE);
+ *
+ * @author TPatel
+ */
+public final class VirtualWorkerPool {
+	/** connection slots will be named as this prefix + slot count */
+	private static final String BASE_NAME = "MyConn";
+
+	/** Denotes whether to output debugging info */
+	private boolean debug = false;
+
+	/** The controller used to create new batch connections */
+	private final TIERSBatchController batchController;
+	/** runs the tasks; a virtual thread per task when supported */
+	private final ExecutorService executor;
+	private final boolean isVirtual;
+	/** guards the connection slots */
+	private final Semaphore connPermits;
+	/** connection slots not in use by a task */
+	private final ConcurrentLinkedQueue<Slot> freeSlots = new ConcurrentLinkedQueue<Slot>();
+	/** all connection slots, in creation order */
+	private final ArrayList<Slot> slots;
+	/** bounds the number of tasks queued or running */
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+
+	/** recycled task objects */
+	private final TaskPool idleQueue;
+
+	private volatile boolean mIsShutdown = false;
+
+	/**
+	 * Initializes the pool with the specified number of connections.
+	 * @param batch
+	 * @param maxConnections number of connections (max tasks running at the same time against the DB)
+	 * @param maxInFlight max tasks queued or running before execute() blocks
+	 * @param task
+	 * @throws TIERSBatchException
+	 */
+	public VirtualWorkerPool(TIERSBatchController batch, int maxConnections, int maxInFlight, BaseWorkTask task) throws TIERSBatchException {
+		//at least one connection is needed
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("Must use at least one connection");
+		}
+		if (batch == null) {
+			throw new TIERSBatchException("BatchController is null; Unable to get connections");
+		}
+		batchController = batch;
+		idleQueue = new TaskPool(task, maxInFlight < maxConnections ? maxConnections : maxInFlight);
+
+		this.maxInFlight = maxInFlight < maxConnections ? maxConnections : maxInFlight;
+		inFlight = new Semaphore(this.maxInFlight);
+
+		slots = new ArrayList<Slot>(maxConnections);
+		for (int i = 1; i <= maxConnections; i++) {
+			final Slot slot = new Slot(new PooledConnection(BASE_NAME + (i < 10 ? "0" + i : "" + i), batchController.getConnection()));
+			slots.add(slot);
+			freeSlots.add(slot);
+		}
+		connPermits = new Semaphore(maxConnections, true);
+
+		final ExecutorService virtualExecutor = VirtualThreads.newThreadPerTaskExecutor("MyVirtual");
+		isVirtual = virtualExecutor != null;
+		executor = isVirtual ? virtualExecutor : Executors.newFixedThreadPool(maxConnections);
+	}
+
+	/**
+	 * Returns true if tasks run on virtual threads
+	 * @return
+	 */
+	public boolean isVirtual() {
+		return isVirtual;
+	}
+
+	/**
+	 * Gets a task object from idle object pool
+	 * @return
+	 */
+	public BaseWorkTask getIdle() {
+		return idleQueue.acquire();
+	}
+
+	/**
+	 * Returns the pool of idle task objects (hit/miss counters, exhaustion policy)
+	 * @return
+	 */
+	public TaskPool getIdlePool() {
+		return idleQueue;
+	}
+
+	/**
+	 * Queues the task; blocks if maxInFlight tasks are already queued/running.
+	 * After shutdown the task is failed (its future completes exceptionally) and released.
+	 * @param task
+	 */
+	public void execute(final BaseWorkTask task) {
+		if (mIsShutdown) {
+			task.complete(new IllegalStateException("Pool is shutdown"));
+			idleQueue.release(task);
+			return;
+		}
+		inFlight.acquireUninterruptibly();
+		try {
+			executor.execute(new TaskRunner(task));
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Queues the task and returns a future completed once the task has run
+	 * (see WorkerThreadPool.submit())
+	 * @param task
+	 * @return
+	 */
+	public CompletableFuture<Object> submit(final BaseWorkTask task) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		task.setFuture(future);
+		execute(task);
+		return future;
+	}
+
+	/**
+	 * Runs the task holding a connection slot
+	 * @param task
+	 */
+	private void runTask(final BaseWorkTask task) {
+		try {
+			connPermits.acquire();
+		} catch (InterruptedException e) {
+			task.complete(e);
+			inFlight.release();
+			return;	//shutdown() interrupted the task before it started
+		}
+		final Slot slot = freeSlots.poll();
+		try {
+			task.setExecutedBy(slot.conn.getName());
+			task.setConnection(slot.conn.getConnection());
+			task.setBatcher(slot.conn.getBatcher());
+			task.setTimer(slot.timer);
+			slot.conn.getBatcher().beginTask();
+			task.run();
+			final BatchedTask unsent = slot.conn.getBatcher().endTask();
+			if (unsent == null) {
+				task.complete(null);
+			} else {
+				task.defer(unsent, slot.conn);	//completes once its batched rows are written
+			}
+		} catch (Throwable e) {
+			// NOTE: tasks *must* handle their own errors
+			e.printStackTrace();
+			task.complete(e);
+		} finally {
+			freeSlots.add(slot);
+			connPermits.release();
+			idleQueue.release(task);
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * Immediately shuts down; tasks still waiting for a connection are dropped
+	 * (their submit() futures complete exceptionally)
+	 */
+	public void shutdown() {
+		mIsShutdown = true;
+		//tasks never started (fixed pool fallback); virtual threads are interrupted in runTask instead
+		for (Runnable dropped : executor.shutdownNow()) {
+			final BaseWorkTask task = ((TaskRunner) dropped).task;
+			task.complete(new IllegalStateException("Pool is shutdown; task not run"));
+			idleQueue.release(task);
+			inFlight.release();
+		}
+	}
+
+	/**
+	 * Shuts down after all queued tasks are done
+	 *
+	 * @param waitForCompletion denotes whether to wait until all tasks are finished
+	 */
+	public void gracefulShutdown(final boolean waitForCompletion) {
+		debugLog("Graceful shutdown initiated...");
+		mIsShutdown = true;
+		executor.shutdown();
+		if (waitForCompletion) {
+			//all permits back means nothing is queued or running
+			inFlight.acquireUninterruptibly(maxInFlight);
+			inFlight.release(maxInFlight);
+		}
+		debugLog("Graceful shutdown completed.");
+	}
+
+	/**
+	 * Graceful shutdown bounded by a timeout
+	 * @param timeout
+	 * @param unit
+	 * @return true if all tasks finished within the timeout; false otherwise
+	 */
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+		mIsShutdown = true;
+		executor.shutdown();
+		try {
+			if (inFlight.tryAcquire(maxInFlight, timeout, unit)) {
+				inFlight.release(maxInFlight);
+				return true;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the timers of every connection slot.
+	 * For performance profiling purposes, of course.
+	 * @return
+	 */
+	public TimerUtil[] getTimers() {
+		final TimerUtil[] timerArr = new TimerUtil[slots.size()];
+		for (int i = 0; i < slots.size(); i++) {
+			timerArr[i] = slots.get(i).timer;
+		}
+		return timerArr;
+	}
+
+	/**
+	 * Returns a map of the connection slots' connections
+	 * @return
+	 */
+	public HashMap<String, Connection> getWorkerConnections() {
+		final HashMap<String, Connection> connMap = new HashMap<String, Connection>();
+		for (Slot slot : slots) {
+			connMap.put(slot.conn.getName(), slot.conn.getConnection());
+		}
+		return connMap;
+	}
+
+	/**
+	 * Commits/rollbacks and closes the connections (pending statement batches are sent before committing).
+	 * A connection whose commit fails is rolled back.
+	 * @param isCommit boolean indicating if commit (true) or rollback (false) is needed
+	 * @return number of connections that could not be committed (their work was rolled back); 0 if all committed
+	 */
+	public int commitWorkers(final boolean isCommit, final boolean isClose) {
+		int count = 0;
+		int failed = 0;
+		for (Slot slot : slots) {
+			try {
+				if (isCommit)
+					slot.conn.commit();
+				else
+					slot.conn.rollback();
+			} catch (SQLException e) {
+				if (isCommit) {
+					failed++;
+					System.err.println("VirtualWorkerPool: Unable to commit for " + slot.conn.getName() + "; rolled back");
+					e.printStackTrace();
+				} else {
+					debugLog("VirtualWorkerPool: Unable to rollback for " + slot.conn.getName() + ": " + e.getMessage());
+				}
+			}
+			if (isClose) {
+				try {
+					slot.conn.close();
+				} catch (SQLException e) {
+					debugLog("VirtualWorkerPool: Unable to close for " + slot.conn.getName() + ": " + e.getMessage());
+				}
+			}
+			count++;
+		}
+		debugLog("VirtualWorkerPool: Connection commit count: " + count);
+		return failed;
+	}
+
+	/**
+	 * Enables/disables console debugging
+	 * @param debug
+	 */
+	public void setDebug(final boolean debug) {
+		this.debug = debug;
+	}
+
+	/**
+	 * Prints line to error console if debugging is enabled
+	 * @param msg
+	 */
+	private void debugLog(final String msg) {
+		if (debug) {
+			System.err.println(msg);
+		}
+	}
+
+	/**
+	 * Runs a queued task (kept as a class so shutdown() can find the tasks that never started)
+	 */
+	private final class TaskRunner implements Runnable {
+		private final BaseWorkTask task;
+
+		private TaskRunner(final BaseWorkTask task) {
+			this.task = task;
+		}
+
+		public void run() {
+			runTask(task);
+		}
+	}
+
+	/**
+	 * A connection and the timer of the tasks using it
+	 */
+	private static final class Slot {
+		private final PooledConnection conn;
+		private final TimerUtil timer;
+
+		private Slot(final PooledConnection conn) {
+			this.conn = conn;
+			this.timer = new TimerUtil();
+			this.timer.setLoggingEnabled(true);
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package concurrent;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * List of parked threads used by the lock-free structures to wait when empty/full.
+ *
+ * Usage (waiting side):
+ * 	waiters.enlist();
+ * 	try {
+ * 		if (<condition still not met>) waiters.park(nanos);
+ * 	} finally {
+ * 		waiters.delist();
+ * 	}
+ *
+ * The condition must be re-checked after enlist() so a signal sent in between is not lost.
+ * park() is always timed; a signal that goes to a thread which did not end up parking is
+ * only delayed until the next timeout, never lost.
+ *
+ * @author TPatel
+ */
+final class WaitList {
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+
+	void enlist() {
+		waiters.add(Thread.currentThread());
+	}
+
+	void delist() {
+		waiters.remove(Thread.currentThread());
+	}
+
+	void park(final long nanos) {
+		LockSupport.parkNanos(this, nanos);
+	}
+
+	boolean hasWaiters() {
+		return !waiters.isEmpty();
+	}
+
+	/**
+	 * Wakes the longest waiting thread (if any)
+	 */
+	void signalOne() {
+		final Thread t = waiters.poll();
+		if (t != null) {
+			LockSupport.unpark(t);
+		}
+	}
+
+	/**
+	 * Wakes every waiting thread
+	 */
+	void signalAll() {
+		Thread t;
+		while ((t = waiters.poll()) != null) {
+			LockSupport.unpark(t);
+		}
+	}
+}
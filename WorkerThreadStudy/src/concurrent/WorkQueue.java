@@ -4,9 +4,9 @@
  */
 package concurrent;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Vector;
 
 /**
  * @author TPatel
@@ -14,9 +14,21 @@ import java.util.Vector;
  * SR88145 - BI-TFISS-BIP Performance
  *
  * Implementation of the data structure that holds the tasks that are waiting
- * to be worked on.  The underlying structure is an ArrayList.
+ * to be worked on.  The underlying structure is a TaskBuffer (see QUEUE_TYPE).
  */
 public class WorkQueue {
+	/** Denotes the structure used to hold the pending tasks */
+	public static enum QUEUE_TYPE {
+		/** LinkedList guarded by a monitor (original behavior) */
+		MONITOR,
+		/** pre-sized lock-free ring buffer; workers park only when it is empty */
+		RING,
+		/** deque per worker; idle workers steal from their peers */
+		STEALING,
+		/** heap ordered by effective deadline (deadline and priority, with aging); see PriorityTaskBuffer */
+		PRIORITY
+	};
+
 	private static final int MIN_QUEUE_SIZE = 20;	//in case workers < 5, then pick a queue big enough to prevent low queue
 	/** size of task queue before overflow is triggered */
 	private int queueSize = 0;
@@ -24,17 +36,17 @@ public class WorkQueue {
 	private static final double PRODUCE_THRESHHOLD = .25; //wait until 25% empty
 	
 	
-	/** the LinkedList that holds the pending tasks */
-	private final List<BaseWorkTask> mQueue;
-	private final Vector<BaseWorkTask> idleQueue;
+	/** the buffer that holds the pending tasks */
+	private final TaskBuffer mQueue;
+	private final TaskPool idleQueue;
 	
 	
-	/** flag to denote that complete shutdown has been requested */
-	private boolean mIsShutdown = false;
 	/** flag to denote that graceful shutdown has been requested */
-	private boolean mIsGracefulShutdown = false;
-	/** flag to denote that task queue reached overflow size */
-	private boolean isOverFlow = false;
+	private volatile boolean mIsGracefulShutdown = false;
+	/** counts the tasks queued but not yet finished */
+	private final CompletionTracker tracker = new CompletionTracker();
+	/** max number of tasks a worker takes from the queue at once */
+	private volatile int batchSize = 1;
 
 	/**
 	 * Creates the task queue and idle queue
@@ -42,11 +54,40 @@ public class WorkQueue {
 	 * @param task
 	 */
 	public WorkQueue(int workers, int qSize, BaseWorkTask task) {
+		this(workers, qSize, task, QUEUE_TYPE.MONITOR);
+	}
+
+	/**
+	 * Creates the task queue using the specified structure, and the idle queue
+	 * @param workers
+	 * @param qSize
+	 * @param task
+	 * @param type
+	 */
+	public WorkQueue(int workers, int qSize, BaseWorkTask task, QUEUE_TYPE type) {
 		//if queuesize is too small, then recalc so that threshhold is worker count
 		queueSize = qSize <= 0 || qSize * PRODUCE_THRESHHOLD <= workers ? (int) (workers / PRODUCE_THRESHHOLD) : qSize;
 		queueSize = queueSize < MIN_QUEUE_SIZE ? MIN_QUEUE_SIZE : queueSize;	//check min queue size
-		mQueue = new LinkedList<BaseWorkTask>();
-		idleQueue = createIdle(queueSize + workers, task);	//account for objects used by workers
+		mQueue = createBuffer(type);
+		idleQueue = new TaskPool(task, queueSize + workers + 1);	//account for objects used by workers
+	}
+
+	/**
+	 * Creates the structure that holds the pending tasks
+	 * @param type
+	 * @return
+	 */
+	private TaskBuffer createBuffer(final QUEUE_TYPE type) {
+		switch (type == null ? QUEUE_TYPE.MONITOR : type) {
+			case RING:
+				return new RingTaskBuffer(queueSize, PRODUCE_THRESHHOLD, tracker);
+			case STEALING:
+				return new StealingTaskBuffer(queueSize, PRODUCE_THRESHHOLD);
+			case PRIORITY:
+				return new PriorityTaskBuffer(queueSize, PRODUCE_THRESHHOLD, PriorityTaskBuffer.DEFAULT_AGING_MILLIS);
+			default:
+				return new MonitorTaskBuffer(queueSize, PRODUCE_THRESHHOLD);
+		}
 	}
 
 	/**
@@ -54,40 +95,34 @@ public class WorkQueue {
 	 *
 	 */
 	protected void addNewIdle() {
-		//
-		BaseWorkTask task = (BaseWorkTask) idleQueue.get(0);
-		idleQueue.add(task.copy());
+		idleQueue.addNew();
 	}
 
 	/**
-	 * Creates an idle queue
-	 * @param size
-	 * @param task
-	 * @return
+	 * Registers a worker before it starts dequeuing
+	 * @param worker
 	 */
-	private Vector<BaseWorkTask> createIdle(int size, BaseWorkTask task) {
-		Vector<BaseWorkTask> idleQueue = new Vector<BaseWorkTask>(size);
-		//create size+1 objects
-		for (int i = 0; i <= size; i++) {
-			idleQueue.add(task.copy());
-		}
-		return idleQueue;
+	public void registerWorker(final Thread worker) {
+		mQueue.register(worker);
+	}
+
+	/**
+	 * Unregisters a worker once it stops dequeuing
+	 * @param worker
+	 */
+	public void unregisterWorker(final Thread worker) {
+		mQueue.unregister(worker);
 	}
 
 	public boolean isShutdown() {
-		synchronized (mQueue) {
-			return mIsShutdown;
-		}
+		return mQueue.isShutdown();
 	}
 
 	/**
 	 * Mark as shutdown and wake all worker threads
 	 */
 	public void shutdown() {
-		synchronized (mQueue) {
-			mIsShutdown = true;
-			mQueue.notifyAll();
-		}
+		mQueue.shutdown();
 	}
 
 	/**
@@ -95,19 +130,14 @@ public class WorkQueue {
 	 * @return
 	 */
 	public boolean isGracefulShutdown() {
-		synchronized (mQueue) {
-			return mIsGracefulShutdown;
-		}
+		return mIsGracefulShutdown;
 	}
 
 	/**
-	 * Mark as gracefulShutdown and wake all worker threads
+	 * Mark as gracefulShutdown
 	 */
 	public void gracefulShutdown() {
-		synchronized (mQueue) {
-			mIsGracefulShutdown = true;
-			mQueue.notifyAll();
-		}
+		mIsGracefulShutdown = true;
 	}
 
 	/**
@@ -116,25 +146,59 @@ public class WorkQueue {
 	 * @param task
 	 */
 	public void enqueue(final BaseWorkTask task) {
-		synchronized (mQueue) {
-			if (getSize() > queueSize) {	//check if threshold reached
-				isOverFlow = true;
-				try {
-					//wait for dequeue events since queue is full
-					mQueue.wait();
-					//Thread.sleep(10000);	//do not use .sleep (too much overhead)
-				} catch (InterruptedException e) {
-					//Here could be totally WRONG swallow this exception
-					e.printStackTrace();
-				}
-			}
-			
-			//Ojo, por que el unico que agrega elementos es este
-			mQueue.add(task);
+		tracker.begin();
+		mQueue.put(task);
+	}
 
-			//wake all waiting workers
-			mQueue.notifyAll();
+	/**
+	 * Queues a task again (retry); the task is still counted as in flight from its first enqueue
+	 * @param task
+	 */
+	void requeue(final BaseWorkTask task) {
+		mQueue.put(task);
+	}
+
+	/**
+	 * Adds all the tasks; the overflow check and worker wake up are done per chunk instead of per task.
+	 * Chunks are sized to what the workers drain after an overflow, so back-pressure still applies.
+	 * @param tasks
+	 */
+	public void enqueueAll(final Collection<? extends BaseWorkTask> tasks) {
+		final int chunkSize = Math.max(1, (int) (queueSize * (1 - PRODUCE_THRESHHOLD)));
+		if (tasks.size() <= chunkSize) {
+			tracker.begin(tasks.size());
+			mQueue.putAll(tasks);
+			return;
+		}
+		final ArrayList<BaseWorkTask> chunk = new ArrayList<BaseWorkTask>(chunkSize);
+		for (BaseWorkTask task : tasks) {
+			chunk.add(task);
+			if (chunk.size() == chunkSize) {
+				tracker.begin(chunk.size());
+				mQueue.putAll(chunk);
+				chunk.clear();
+			}
 		}
+		if (!chunk.isEmpty()) {
+			tracker.begin(chunk.size());
+			mQueue.putAll(chunk);
+		}
+	}
+
+	/**
+	 * Called by the worker once a dequeued task has finished running (successfully or not)
+	 * @param runNanos time spent running the task
+	 */
+	public void taskCompleted(final long runNanos) {
+		tracker.end(runNanos);
+	}
+
+	/**
+	 * Returns the tracker of queued/running tasks
+	 * @return
+	 */
+	public CompletionTracker getTracker() {
+		return tracker;
 	}
 
 	/**
@@ -152,40 +216,44 @@ public class WorkQueue {
 	 * @throws InterruptedException
 	 */
 	public BaseWorkTask dequeue() throws InterruptedException {
-		synchronized (mQueue) {
-			//if there are no more tasks in the queue, wait...
-			while (!isShutdown() && mQueue.isEmpty()) {
-				mQueue.wait();
-			}
+		return mQueue.take();
+	}
 
-			if (mQueue.isEmpty()) {
-				isOverFlow = false;
-				return null;
-			} else {
-				final BaseWorkTask result = (BaseWorkTask) mQueue.get(0);
-				mQueue.remove(result);
-				//if low threshhold reached, signal producer to add tasks
-				if (isOverFlow && mQueue.size() <= PRODUCE_THRESHHOLD * queueSize) {
-					isOverFlow = false;
-					mQueue.notifyAll();	//in case maxThreshhold thread waiting;  moved from outside immediate if statement to here
-				}
-				return result;
-			}
-		}
+	/**
+	 * Moves up to max tasks into batch; if no more tasks, then will
+	 * block until a task becomes available.
+	 * @param batch list to add the tasks to (reused by the worker)
+	 * @param max
+	 * @return number of tasks added; 0 if shutdown
+	 * @throws InterruptedException
+	 */
+	public int dequeueBatch(final List<BaseWorkTask> batch, final int max) throws InterruptedException {
+		return mQueue.takeBatch(batch, max);
 	}
 
 	/**
-	 * Gets a task object from the pool of idle objects
+	 * Returns max number of tasks a worker takes from the queue at once
 	 * @return
 	 */
-	public BaseWorkTask getIdle() {
+	public int getBatchSize() {
+		return batchSize;
+	}
 
-		/* this logic is not needed since the idle pool should have more than enough tasks */
-		if (idleQueue.size() == 0) {
-			System.err.println("** IDLE QUEUE is 0; TASK QUEUE is " + mQueue.size());
-			return null;
-		}
-		return (BaseWorkTask) idleQueue.remove(0);
+	/**
+	 * Sets max number of tasks a worker takes from the queue at once (default 1)
+	 * @param size
+	 */
+	public void setBatchSize(final int size) {
+		batchSize = size < 1 ? 1 : size;
+	}
+
+	/**
+	 * Gets a task object from the pool of idle objects;
+	 * if the pool is exhausted, a new copy is created (or blocks; see TaskPool.setGrowOnExhaust)
+	 * @return
+	 */
+	public BaseWorkTask getIdle() {
+		return idleQueue.acquire();
 	}
 
 	/**
@@ -193,6 +261,14 @@ public class WorkQueue {
 	 * @param task
 	 */
 	public void addIdle(BaseWorkTask task) {
-		idleQueue.add(task);
+		idleQueue.release(task);
+	}
+
+	/**
+	 * Returns the pool of idle tasks (for hit/miss counters)
+	 * @return
+	 */
+	public TaskPool getIdlePool() {
+		return idleQueue;
 	}
 }
@@ -0,0 +1,85 @@
+package concurrent;
+
+/**
+ * Reads the live metrics of a WorkerThreadPool; registered as an MBean by MetricsExporter
+ * and also used for its Prometheus output.
+ *
+ * @author TPatel
+ */
+public class WorkerPoolMetrics implements WorkerPoolMetricsMBean {
+	private final WorkerThreadPool pool;
+
+	public WorkerPoolMetrics(final WorkerThreadPool pool) {
+		this.pool = pool;
+	}
+
+	public int getQueueDepth() {
+		return pool.getQueueSize();
+	}
+
+	public int getIdleTasks() {
+		return pool.getIdlePool().size();
+	}
+
+	public int getWorkers() {
+		return pool.getNumThreads();
+	}
+
+	public int getBusyWorkers() {
+		return pool.getBusyCount();
+	}
+
+	public long getTasksInFlight() {
+		return pool.getInFlightCount();
+	}
+
+	public long getTasksCompleted() {
+		return pool.getCompletedCount();
+	}
+
+	public double getTasksPerSecond() {
+		return pool.getCompletedPerSecond();
+	}
+
+	public double getTaskLatencyP50Millis() {
+		return getTaskLatency().getValueAtPercentile(50) / 1e6;
+	}
+
+	public double getTaskLatencyP99Millis() {
+		return getTaskLatency().getValueAtPercentile(99) / 1e6;
+	}
+
+	public double getTaskLatencyMaxMillis() {
+		return getTaskLatency().getMax() / 1e6;
+	}
+
+	/**
+	 * Returns the run time histogram of the tasks (merged across workers)
+	 * @return
+	 */
+	public LatencyHistogram getTaskLatency() {
+		final LatencyHistogram hist = pool.getTaskTimer().getHistograms().get("task");
+		return hist == null ? new LatencyHistogram() : hist;
+	}
+
+	public int getConnectionsOpen() {
+		return pool.getConnectionPool().size();
+	}
+
+	public int getConnectionsInUse() {
+		final ConnectionPool connPool = pool.getConnectionPool();
+		return connPool.size() - connPool.getIdleCount();
+	}
+
+	public int getMaxConnections() {
+		return pool.getConnectionPool().getMaxConnections();
+	}
+
+	public int getDeadLetters() {
+		return pool.getDeadLetterQueue().size();
+	}
+
+	public long getCheckpoints() {
+		return pool.getCheckpointCount();
+	}
+}
@@ -0,0 +1,43 @@
+package concurrent;
+
+/**
+ * JMX view of a WorkerThreadPool (see MetricsExporter.register)
+ *
+ * @author TPatel
+ */
+public interface WorkerPoolMetricsMBean {
+	/** tasks waiting in the queue */
+	int getQueueDepth();
+
+	/** recycled task objects available */
+	int getIdleTasks();
+
+	int getWorkers();
+
+	/** workers running a task at the moment */
+	int getBusyWorkers();
+
+	/** tasks queued or running */
+	long getTasksInFlight();
+
+	long getTasksCompleted();
+
+	/** tasks completed per second over the last CompletionTracker.RATE_WINDOW_SECONDS seconds */
+	double getTasksPerSecond();
+
+	double getTaskLatencyP50Millis();
+
+	double getTaskLatencyP99Millis();
+
+	double getTaskLatencyMaxMillis();
+
+	int getConnectionsOpen();
+
+	int getConnectionsInUse();
+
+	int getMaxConnections();
+
+	int getDeadLetters();
+
+	long getCheckpoints();
+}
@@ -0,0 +1,245 @@
+package concurrent;
+
+import externals.TIERSBatchException;
+
+/**
+ * Sizes the worker pool automatically (replaces guessing the count in fw_batch_parameter_control).
+ *
+ * Every sample interval the scaler measures the throughput (tasks completed per second),
+ * the queue depth and the average task latency, then moves the worker count one step
+ * using hill climbing: keep moving in the same direction while throughput improves,
+ * reverse when it drops.  Two shortcuts avoid probing when the answer is obvious:
+ *  - no backlog and the workers mostly idle: shrink
+ *  - backlog and the workers saturated at the last count: grow
+ *
+ * The count is kept within [min, max]; max is also capped by the worker limit.
+ * A failure to add a worker (e.g. no more connections) caps max at the current count.
+ *
+ * The decisions are exposed through the getters for monitoring.
+ *
+ * @author TPatel
+ */
+public final class WorkerScaler implements Runnable {
+	/** relative throughput change treated as noise */
+	private static final double TOLERANCE = 0.05;
+	/** utilization under which the workers are considered idle */
+	private static final double LOW_UTILIZATION = 0.5;
+	/** utilization over which the workers are considered saturated */
+	private static final double HIGH_UTILIZATION = 0.9;
+
+	private final WorkerThreadPool pool;
+	private final WorkQueue queue;
+	private final int minWorkers;
+	private volatile int maxWorkers;
+	private final long sampleMillis;
+
+	private volatile boolean running = true;
+
+	/** +1 when growing, -1 when shrinking */
+	private int direction = 1;
+	private long lastCompleted;
+	private long lastBusyNanos;
+	private long lastSampleNanos;
+	private double lastThroughput = -1;
+
+	//metrics of the last sample
+	private volatile double throughput;
+	private volatile double avgLatencyMillis;
+	private volatile double utilization;
+	private volatile int queueDepth;
+	private volatile int workers;
+	private volatile String lastDecision = "none";
+	private volatile long adjustments;
+
+	/**
+	 * @param pool pool to resize
+	 * @param queue queue of the pool
+	 * @param minWorkers
+	 * @param maxWorkers
+	 * @param sampleMillis interval between adjustments
+	 */
+	WorkerScaler(final WorkerThreadPool pool, final WorkQueue queue, final int minWorkers, final int maxWorkers, final long sampleMillis) {
+		if (minWorkers < 1 || maxWorkers < minWorkers) {
+			throw new IllegalArgumentException("Invalid worker bounds: " + minWorkers + "-" + maxWorkers);
+		}
+		if (sampleMillis <= 0) {
+			throw new IllegalArgumentException("Invalid sample interval: " + sampleMillis);
+		}
+		this.pool = pool;
+		this.queue = queue;
+		this.minWorkers = minWorkers;
+		this.maxWorkers = Math.min(maxWorkers, WorkerThread.MAX_WORKERS);
+		this.sampleMillis = sampleMillis;
+	}
+
+	/**
+	 * Samples and adjusts until stopped or the queue is shut down
+	 */
+	public void run() {
+		final CompletionTracker tracker = queue.getTracker();
+		lastCompleted = tracker.getCompleted();
+		lastBusyNanos = tracker.getBusyNanos();
+		lastSampleNanos = System.nanoTime();
+		while (running && !queue.isShutdown()) {
+			try {
+				Thread.sleep(sampleMillis);
+			} catch (InterruptedException e) {
+				break;	//stop() interrupts
+			}
+			if (running && !queue.isShutdown()) {
+				sample(tracker);
+			}
+		}
+	}
+
+	/**
+	 * Stops the scaler; the worker count is left as is
+	 */
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * Takes one sample and moves the worker count one step
+	 * @param tracker
+	 */
+	private void sample(final CompletionTracker tracker) {
+		final long now = System.nanoTime();
+		final long completed = tracker.getCompleted();
+		final long busyNanos = tracker.getBusyNanos();
+		final long elapsedNanos = Math.max(1, now - lastSampleNanos);
+		final long done = completed - lastCompleted;
+		final int current = pool.getNumThreads();
+
+		throughput = done * 1e9 / elapsedNanos;
+		avgLatencyMillis = done == 0 ? 0 : (busyNanos - lastBusyNanos) / 1e6 / done;
+		utilization = (busyNanos - lastBusyNanos) / ((double) elapsedNanos * Math.max(1, current));
+		queueDepth = queue.getSize();
+		workers = current;
+		lastCompleted = completed;
+		lastBusyNanos = busyNanos;
+		lastSampleNanos = now;
+
+		int target = current;
+		if (queueDepth == 0 && utilization < LOW_UTILIZATION) {
+			direction = -1;
+			target = current - 1;
+			lastDecision = "shrink (idle)";
+		} else if (lastThroughput < 0) {
+			//first sample (or first after idling): nothing to compare against yet
+			if (queueDepth > 0 && utilization > HIGH_UTILIZATION) {
+				direction = 1;
+				target = current + 1;
+				lastDecision = "grow (saturated)";
+			} else {
+				lastDecision = "hold";
+			}
+		} else {
+			final double change = throughput - lastThroughput;
+			boolean move = true;
+			if (change < -TOLERANCE * lastThroughput) {
+				direction = -direction;	//last move hurt; go back
+				lastDecision = "reverse";
+			} else if (change > TOLERANCE * lastThroughput) {
+				lastDecision = "continue";
+			} else if (queueDepth > 0) {
+				lastDecision = "probe";	//no change but backlog; keep exploring
+			} else {
+				move = false;
+				lastDecision = "hold";
+			}
+			if (move) {
+				target = current + direction;
+			}
+		}
+		//throughput while idle says nothing about the best count; start over once busy again
+		lastThroughput = queueDepth == 0 && utilization < LOW_UTILIZATION ? -1 : throughput;
+
+		target = Math.max(minWorkers, Math.min(maxWorkers, target));
+		if (target != current) {
+			try {
+				pool.adjustNumThreads(target);
+				adjustments++;
+			} catch (TIERSBatchException e) {
+				//out of connections/workers; do not try to go past this count again
+				maxWorkers = Math.max(minWorkers, pool.getNumThreads());
+				lastDecision = "capped: " + e.getMessage();
+			}
+		}
+	}
+
+	/**
+	 * Returns tasks completed per second during the last sample
+	 * @return
+	 */
+	public double getThroughput() {
+		return throughput;
+	}
+
+	/**
+	 * Returns average run time (ms) of the tasks completed during the last sample
+	 * @return
+	 */
+	public double getAvgLatencyMillis() {
+		return avgLatencyMillis;
+	}
+
+	/**
+	 * Returns fraction of the sample the workers spent running tasks (0-1)
+	 * @return
+	 */
+	public double getUtilization() {
+		return utilization;
+	}
+
+	/**
+	 * Returns number of tasks waiting at the last sample
+	 * @return
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+
+	/**
+	 * Returns number of workers at the last sample (before the adjustment)
+	 * @return
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+
+	/**
+	 * Returns current upper bound (lowered if adding workers failed)
+	 * @return
+	 */
+	public int getMaxWorkers() {
+		return maxWorkers;
+	}
+
+	public int getMinWorkers() {
+		return minWorkers;
+	}
+
+	/**
+	 * Returns the reason for the last adjustment
+	 * @return
+	 */
+	public String getLastDecision() {
+		return lastDecision;
+	}
+
+	/**
+	 * Returns number of times the worker count was changed
+	 * @return
+	 */
+	public long getAdjustments() {
+		return adjustments;
+	}
+
+	public String toString() {
+		return "WorkerScaler[workers=" + workers + " (" + minWorkers + "-" + maxWorkers + ")"
+				+ ", throughput=" + Math.round(throughput) + "/s, latency=" + avgLatencyMillis + "ms"
+				+ ", utilization=" + Math.round(utilization * 100) + "%, queue=" + queueDepth
+				+ ", decision=" + lastDecision + "]";
+	}
+}
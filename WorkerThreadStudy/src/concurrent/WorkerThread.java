@@ -4,7 +4,7 @@
  */
 package concurrent;
 
-import java.sql.Connection;
+import java.util.ArrayList;
 
 import externals.TIERSBatchException;
 
@@ -21,6 +21,8 @@ import externals.TIERSBatchException;
  *
  */
 public class WorkerThread extends Thread {
+	/** max number of workers (worker names are 2 digits) */
+	static final int MAX_WORKERS = 99;
 	/** incremental counter used to ensure too many threads are not instantiated */
 	private static int counter = 0;
 	/** incremental counter used to name workers */
@@ -31,46 +33,68 @@ public class WorkerThread extends Thread {
 	private final WorkQueue mQueue;
 	
 	
-	/** the connection that the worker maintains and which will be used when performing the task */
-	private final Connection conn;
+	/** the connection that the worker maintains and which will be used when performing the task; null if acquired per batch */
+	private PooledConnection pinned;
+	/** the pool the connections come from */
+	private final ConnectionPool connPool;
+	/** commits the connection between tasks when due */
+	private final Checkpointer checkpointer;
+	/** schedules the retries of failed tasks */
+	private final RetryHandler retries;
+	/** the pool the worker belongs to (see WorkerThreadPool.getRunFailure) */
+	private final WorkerThreadPool pool;
 	
 	/** denotes whether the worker is working on a task or waiting for a task */
-	private boolean working = false;
-	/** denotes whether the worker needs to be killed off after finishing the task */
-	private boolean killSw = false;
+	private volatile boolean working = false;
+	/** denotes whether the worker needs to be killed off after finishing the task (set by other threads) */
+	private volatile boolean killSw = false;
 	
 	/** workers will be named as this prefix + worker count */
 	private static final String BASE_NAME = "MyWorker";
 
 	protected static boolean debug = false;	//use to show thread life info
 	private TimerUtil timer;
+	/** records the run time of every task (see WorkerThreadPool.getTaskTimer) */
+	private final MethodTimer taskTimer;
 
 	/**
 	 * Initialize worker to use a specific connection.
-	 * @param conn
+	 * @param pinned connection held for the worker's life; null to take one from connPool per batch of tasks
+	 * @param connPool
+	 * @param checkpointer
+	 * @param retries
 	 * @param queue
 	 */
-	private WorkerThread(final Connection conn, final WorkerThreadPool pool, final WorkQueue queue) {
+	private WorkerThread(final PooledConnection pinned, final ConnectionPool connPool, final Checkpointer checkpointer, final RetryHandler retries, final WorkerThreadPool pool, final WorkQueue queue) {
 		super();
-		this.conn = conn;
+		this.pinned = pinned;
+		this.connPool = connPool;
+		this.checkpointer = checkpointer;
+		this.retries = retries;
+		this.pool = pool;
 		timer = new TimerUtil();
 		timer.setLoggingEnabled(true);
 		pool.addTimer(timer);
+		taskTimer = pool.getTaskTimer();
 		mQueue = queue;
 	}
 
 	/**
 	 * Starts up a new worker
-	 * @param conn
+	 * @param pinned connection held for the worker's life; null to take one from connPool per batch of tasks
+	 * @param connPool
+	 * @param checkpointer
+	 * @param retries
 	 * @param queue
 	 * @return
 	 */
-	protected static WorkerThread startRunner(final Connection conn, final WorkerThreadPool pool, final WorkQueue queue) throws TIERSBatchException {
-		if (counter >= 99) {
+	protected static WorkerThread startRunner(final PooledConnection pinned, final ConnectionPool connPool, final Checkpointer checkpointer, final RetryHandler retries, final WorkerThreadPool pool, final WorkQueue queue) throws TIERSBatchException {
+		if (counter >= MAX_WORKERS) {
 			throw new TIERSBatchException("Max WorkerThread limit exceeded: " + counter);
 		}
-		final WorkerThread runner = new WorkerThread(conn, pool, queue);
+		final WorkerThread runner = new WorkerThread(pinned, connPool, checkpointer, retries, pool, queue);
 		runner.setName(BASE_NAME + formatStrLen("" + ++threadNameCounter, 2));
+		queue.registerWorker(runner);
 		runner.start();
 		queue.addNewIdle();
 		queue.addNewIdle();	//add 2 idle for every runner ??????
@@ -97,35 +121,126 @@ public class WorkerThread extends Thread {
 	}
 
 	/**
-	 * Worker will wait/process tasks until shutdown or kill command received
+	 * Worker will wait/process tasks until shutdown or kill command received.
+	 * Tasks are taken from the queue in batches (see WorkQueue.setBatchSize);
+	 * the whole local batch is processed before going back to the queue.
+	 * Unless pinned, the worker holds a connection only while processing a batch.
 	 */
 	public void run() {
 		if (debug) System.err.println("+" + this.getName());
+		final ArrayList<BaseWorkTask> batch = new ArrayList<BaseWorkTask>();
 		while (!mQueue.isShutdown() && !isKillSw()) {
 			try {
-				final BaseWorkTask task = mQueue.dequeue();
-				if (task != null) {
-					task.setExecutedBy(this.getName());	//give the task the worker's name
-					task.setConnection(conn);	//give the task the worker's connection
-					task.setTimer(timer);
-					setWorking(true);
-					task.run();		//process task
-					setWorking(false);
-					mQueue.addIdle(task);
+				batch.clear();
+				if (mQueue.dequeueBatch(batch, mQueue.getBatchSize()) > 0) {
+					runBatch(batch);
 				}
 			} catch (Throwable e) {
-				// NOTE: tasks *must* handle their own errors
 				e.printStackTrace();
 				setWorking(false);
 			}
 		}
 
+		mQueue.unregisterWorker(this);
+		if (pinned != null) {
+			connPool.release(pinned);	//uncommitted work is kept for commitWorkers()
+			pinned = null;
+		}
+
 		if (debug) System.err.println("-" + this.getName());
 		
 		//When this worker stops, decrement total count of active workers
 		counter--;
 	}
 
+	/**
+	 * Processes the tasks with the pinned connection, or one taken from the pool for the batch;
+	 * commits the connection between tasks when an intermediate commit is due
+	 * @param batch
+	 */
+	private void runBatch(final ArrayList<BaseWorkTask> batch) {
+		final PooledConnection pc;
+		try {
+			pc = pinned != null ? (pinned = connPool.renew(pinned)) : connPool.acquire();
+		} catch (TIERSBatchException e) {
+			//no connection to run with; fail the tasks rather than lose them silently
+			e.printStackTrace();
+			for (int i = 0; i < batch.size(); i++) {
+				batch.get(i).complete(e);
+				mQueue.taskCompleted(0);
+			}
+			return;
+		}
+		try {
+			for (int i = 0; i < batch.size(); i++) {
+				final Throwable stopped = pool.getRunFailure();
+				if (stopped != null) {
+					//a checkpoint failed; the run is over
+					batch.get(i).complete(new IllegalStateException("Run stopped; task not run", stopped));
+					mQueue.taskCompleted(0);
+					continue;
+				}
+				runTask(batch.get(i), pc);
+				pc.taskRan();
+				checkpointer.afterTask(pc);
+			}
+		} finally {
+			if (pc != pinned) {
+				connPool.release(pc);
+			}
+		}
+	}
+
+	/**
+	 * Processes a single task with the connection and the worker's timer
+	 * @param task
+	 * @param pc
+	 */
+	private void runTask(final BaseWorkTask task, final PooledConnection pc) {
+		final long start = System.nanoTime();
+		boolean finished = true;
+		final boolean marked = retries.mayRetry(task);
+		if (marked) {
+			pc.markTask();	//a failed run is undone before the retry
+		}
+		try {
+			task.setExecutedBy(this.getName());	//give the task the worker's name
+			task.setConnection(pc.getConnection());	//give the task the worker's connection
+			task.setBatcher(pc.getBatcher());
+			task.setTimer(timer);
+			pc.getBatcher().beginTask();
+			setWorking(true);
+			task.run();		//process task
+			setWorking(false);
+			if (marked) {
+				pc.taskDone();
+			}
+			final BatchedTask unsent = pc.getBatcher().endTask();
+			if (unsent == null) {
+				pc.taskSucceeded(task.getName());	//journaled once committed
+				task.complete(null);	//hand the result to the submit() future (if any)
+			} else {
+				task.defer(unsent, pc);	//completes once its batched rows are written
+			}
+			mQueue.addIdle(task);
+		} catch (Throwable e) {
+			// NOTE: tasks *must* handle their own errors
+			e.printStackTrace();
+			setWorking(false);
+			if (retries.retry(task, e, marked && pc.undoTask())) {
+				finished = false;	//queued again after the backoff; still in flight
+			} else {
+				task.complete(e);	//out of attempts; task is in the dead letter queue
+			}
+		} finally {
+			final long runNanos = System.nanoTime() - start;
+			taskTimer.recordCapture(WorkerThreadPool.TASK_CAPTURE, runNanos);
+			if (finished) {
+				mQueue.taskCompleted(runNanos);	//signal completion even if the task failed
+			}
+		}
+	}
+
 	/**
 	 * @return
 	 */
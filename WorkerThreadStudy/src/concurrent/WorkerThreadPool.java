@@ -10,6 +10,8 @@ import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import externals.TIERSBatchException;
 import externals.TIERSBatchController;
@@ -33,8 +35,59 @@ import externals.TIERSBatchController;
  * 	 pool.execute(task);
  * 	 <add as many tasks as needed>
  *
+ * Add to queue and get the task result/failure:
+ * 	 CompletableFuture<Object> future = pool.submit(task);
+ *
  * Graceful shutdown:
  *   pool.gracefulShutdown();
+ *
+ * Work-stealing mode (each worker has its own deque; idle workers steal from busy ones):
+ *   WorkerThreadPool pool = new WorkerThreadPool(batchController, EXEC_THREAD_POOLSIZE, queueSize, task, WorkQueue.QUEUE_TYPE.STEALING);
+ *
+ * Priority/deadline mode (urgent tasks jump the queue):
+ *   WorkerThreadPool pool = new WorkerThreadPool(batchController, EXEC_THREAD_POOLSIZE, queueSize, task, WorkQueue.QUEUE_TYPE.PRIORITY);
+ *   task.setPriority(10);	//or task.setDeadline(System.currentTimeMillis() + 60000);
+ *   pool.execute(task);
+ *
+ * Auto scaling (worker count follows the throughput instead of fw_batch_parameter_control):
+ *   pool.enableAutoScaling(MIN_WORKERS, MAX_WORKERS, 5000);
+ *   System.out.println(pool.getScaler());
+ *
+ * More workers than connections (connections taken per batch of tasks, validated and evicted when idle):
+ *   ConnectionPool connPool = new ConnectionPool(batchController, MAX_CONNECTIONS);
+ *   WorkerThreadPool pool = new WorkerThreadPool(EXEC_THREAD_POOLSIZE, queueSize, task, WorkQueue.QUEUE_TYPE.MONITOR, connPool);
+ *
+ * Intermediate commits (bounded transactions on long runs):
+ *   pool.setCommitInterval(1000, 60000);	//per worker connection: every 1000 tasks or 60 seconds
+ *   pool.addCheckpointListener(progressRecorder);
+ *
+ * Batched row writes (in the task's run()):
+ *   getBatcher().addBatch("insert into t (a, b) values (?, ?)", a, b);
+ *
+ * Restartable job (tasks completed by a previous run are skipped, by task name):
+ *   TaskJournal journal = new TaskJournal(new File("myjob.journal"));
+ *   pool.setJournal(journal);
+ *   <execute tasks, gracefulShutdown, commitWorkers>
+ *   journal.close();
+ *
+ * Retries (failed tasks run again after an exponential backoff, then go to the dead letter queue):
+ *   pool.setRetryPolicy(new RetryPolicy(3, 1000, 30000));
+ *   <after the run> for (DeadLetterQueue.Entry dead : pool.getDeadLetterQueue().getEntries()) ...
+ *   pool.resubmitDeadLetters();
+ *
+ * Profiling without capture calls (samples the workers' stacks):
+ *   MethodTimer profiler = new MethodTimer(System.err);
+ *   profiler.startSampling(pool, MethodTimer.DEFAULT_SAMPLE_MILLIS);
+ *   <run>
+ *   profiler.stopSampling();
+ *   profiler.printSampledTimings();
+ *
+ * Live metrics (JMX and Prometheus text at http://host:9404/metrics):
+ *   MetricsExporter exporter = new MetricsExporter();
+ *   exporter.register("myjob", pool);
+ *   exporter.startHttp(9404);
+ *   <run>
+ *   exporter.stop();
  * 
  * 5/3/2010:  Added logic to retrieve connections in order to commit as needed;
  * 
@@ -47,19 +100,35 @@ public final class WorkerThreadPool {
 	public static final boolean ROLLBACK = false;
 	public static final boolean CLOSE = true;
 	public static final boolean DO_NOT_CLOSE = false;
+	/** capture point of the task run times in the task timer */
+	static final int TASK_CAPTURE = MethodTimer.registerCapture("task");
 
 	/** The queue that will hold the tasks */
 	private final WorkQueue mQueue;
 	/** The collection of workers */
 	private final Collection<WorkerThread> mPool;
-	/** The collection of workers */
-	private final HashMap<String, Connection> connMap;
+	/** The connections used by the workers */
+	private final ConnectionPool connPool;
+	/** Denotes whether each worker holds a connection for its whole life (true) or takes one per batch of tasks */
+	private final boolean pinConnections;
+	/** Intermediate commits of the worker connections */
+	private final Checkpointer checkpointer;
+	/** Retries failed tasks and holds the ones given up on */
+	private final RetryHandler retries;
+	/** Records the completed tasks, to skip them when the job is restarted; null if not journaling */
+	private volatile TaskJournal journal;
+	/** The failure that stopped the run; null if none */
+	private volatile Throwable runFailure;
 	/** The Reader thread that will poll the fw_batch_parameter_control table for any param updates */
 	private Thread paramReader;
+	/** Adjusts the worker count automatically (see enableAutoScaling) */
+	private WorkerScaler scaler;
 	/** The controller used to create new batch connections */
 	private TIERSBatchController batchController;
 
 	private ArrayList<TimerUtil> timers;
+	/** run time of every task, recorded by the workers */
+	private final MethodTimer taskTimer = new MethodTimer();
 
 	/**
 	 * Initializes the worker pool with the specified number of workers, each with it's own connection
@@ -68,6 +137,40 @@ public final class WorkerThreadPool {
 	 * @throws TIERSBatchException
 	 */
 	public WorkerThreadPool(TIERSBatchController batch, int numThreads, int queueSize, BaseWorkTask task) throws TIERSBatchException {
+		this(batch, numThreads, queueSize, task, WorkQueue.QUEUE_TYPE.MONITOR);
+	}
+
+	/**
+	 * Initializes the worker pool with the specified number of workers, each with it's own connection,
+	 * using the specified structure to hold the pending tasks
+	 * @param batch
+	 * @param numThreads
+	 * @param queueSize
+	 * @param task
+	 * @param queueType MONITOR (default), RING (lock-free; for large worker counts), STEALING (deque per worker)
+	 * 		or PRIORITY (by task deadline/priority)
+	 * @throws TIERSBatchException
+	 */
+	public WorkerThreadPool(TIERSBatchController batch, int numThreads, int queueSize, BaseWorkTask task, WorkQueue.QUEUE_TYPE queueType) throws TIERSBatchException {
+		this(numThreads, queueSize, task, queueType, new ConnectionPool(batch, WorkerThread.MAX_WORKERS), true);
+	}
+
+	/**
+	 * Initializes the worker pool with the specified number of workers sharing the connections of connPool:
+	 * a worker takes a connection only while it processes a batch of tasks, so there can be
+	 * more workers than connections (for tasks mixing CPU and I/O work)
+	 * @param numThreads
+	 * @param queueSize
+	 * @param task
+	 * @param queueType
+	 * @param connPool
+	 * @throws TIERSBatchException
+	 */
+	public WorkerThreadPool(int numThreads, int queueSize, BaseWorkTask task, WorkQueue.QUEUE_TYPE queueType, ConnectionPool connPool) throws TIERSBatchException {
+		this(numThreads, queueSize, task, queueType, connPool, false);
+	}
+
+	private WorkerThreadPool(int numThreads, int queueSize, BaseWorkTask task, WorkQueue.QUEUE_TYPE queueType, ConnectionPool connPool, boolean pinConnections) throws TIERSBatchException {
 		//at least one worker is needed
 		if (numThreads < 1) {
 			throw new IllegalArgumentException("Must use at least one thread");
@@ -76,13 +179,16 @@ public final class WorkerThreadPool {
 		timers = new ArrayList<TimerUtil>();
 		
 		//Aade elementos al queue de idles
-		mQueue = new WorkQueue(numThreads, queueSize, task);
+		mQueue = new WorkQueue(numThreads, queueSize, task, queueType);
+		retries = new RetryHandler(mQueue);
+		checkpointer = new Checkpointer(this);
 		
 		mPool = new ArrayList<WorkerThread>(numThreads);
-		batchController = batch;
+		this.connPool = connPool;
+		this.pinConnections = pinConnections;
+		batchController = connPool.getBatchController();
 
 		//create worker threads
-		connMap = new HashMap<String, Connection>();
 		for (int i = 0; i < numThreads; i++) {
 			addWorker();
 		}
@@ -91,34 +197,17 @@ public final class WorkerThreadPool {
 
 	/**
 	 * Adds a worker to the pool;
-	 * Stores the connection as well.
+	 * when pinning, the worker gets its own connection to simplify LUW.
 	 * @throws TIERSBatchException
 	 */
 	private void addWorker() throws TIERSBatchException {
 		//get a new connection for the worker thread
-		Connection workerConn = getNewConnection();
+		final PooledConnection workerConn = pinConnections ? connPool.acquire() : null;
 		//initialize a new worker
-		WorkerThread worker = WorkerThread.startRunner(workerConn, this, mQueue);
+		WorkerThread worker = WorkerThread.startRunner(workerConn, connPool, checkpointer, retries, this, mQueue);
 
 		//add worker
 		mPool.add(worker);
-		//maintain a map of the worker connections
-		connMap.put(worker.getName(), workerConn);
-	}
-
-	/**
-	 * Creates a new connection for each worker to use to simplify LUW.
-	 * @return
-	 * @throws TIERSBatchException
-	 */
-	private Connection getNewConnection() throws TIERSBatchException {
-		Connection conn = null;
-		if (batchController != null) {
-			conn = batchController.getConnection();
-		} else {
-			throw new TIERSBatchException("BatchController is null; Unable to get connections");
-		}
-		return conn;
 	}
 
 	/**
@@ -143,6 +232,34 @@ public final class WorkerThreadPool {
 		paramReader.start();
 	}
 
+	/**
+	 * Starts adjusting the number of workers automatically, based on the throughput,
+	 * queue depth and task latency sampled every sampleMillis (see WorkerScaler).
+	 * Use instead of initParamReader(); the worker count set through the reader would be overridden.
+	 * @param minWorkers
+	 * @param maxWorkers upper bound; also keep it within the number of connections available
+	 * @param sampleMillis interval between adjustments; should span many tasks
+	 * @return the scaler, for monitoring its decisions
+	 */
+	public synchronized WorkerScaler enableAutoScaling(final int minWorkers, final int maxWorkers, final long sampleMillis) {
+		if (scaler != null) {
+			scaler.stop();
+		}
+		scaler = new WorkerScaler(this, mQueue, minWorkers, maxWorkers, sampleMillis);
+		final Thread scalerThread = new Thread(scaler, "MyWorkerScaler");
+		scalerThread.setDaemon(true);
+		scalerThread.start();
+		return scaler;
+	}
+
+	/**
+	 * Returns the auto scaler; null if auto scaling is not enabled
+	 * @return
+	 */
+	public synchronized WorkerScaler getScaler() {
+		return scaler;
+	}
+
 	/**
 	 * Adds a timer object (called by worker before exiting)
 	 * @param timer
@@ -161,6 +278,68 @@ public final class WorkerThreadPool {
 		return timers.toArray(timerArr);
 	}
 
+	/**
+	 * Returns the timer holding the run time (and latency histogram) of every task run by the workers
+	 * @return
+	 */
+	public MethodTimer getTaskTimer() {
+		return taskTimer;
+	}
+
+	/**
+	 * Returns number of tasks waiting in the queue
+	 * @return
+	 */
+	public int getQueueSize() {
+		return mQueue.getSize();
+	}
+
+	/**
+	 * Returns the current worker threads (e.g. to sample their stacks; see MethodTimer.startSampling)
+	 * @return
+	 */
+	public synchronized Thread[] getWorkerThreads() {
+		return mPool.toArray(new Thread[mPool.size()]);
+	}
+
+	/**
+	 * Returns number of workers running a task at the moment
+	 * @return
+	 */
+	public synchronized int getBusyCount() {
+		int busy = 0;
+		for (WorkerThread worker : mPool) {
+			if (worker.isWorking()) {
+				busy++;
+			}
+		}
+		return busy;
+	}
+
+	/**
+	 * Returns number of tasks queued or running
+	 * @return
+	 */
+	public long getInFlightCount() {
+		return mQueue.getTracker().getInFlight();
+	}
+
+	/**
+	 * Returns number of tasks finished (successfully or not) since the pool was created
+	 * @return
+	 */
+	public long getCompletedCount() {
+		return mQueue.getTracker().getCompleted();
+	}
+
+	/**
+	 * Returns the tasks finished per second over the last CompletionTracker.RATE_WINDOW_SECONDS seconds
+	 * @return
+	 */
+	public double getCompletedPerSecond() {
+		return mQueue.getTracker().getCompletedPerSecond();
+	}
+
 	/**
 	 * Gets the current timings in action; Does not take into account workers that have been killed.
 	 * @return
@@ -175,45 +354,191 @@ public final class WorkerThreadPool {
 
 	/**
 	 * Enqueues a task
+	 * (unless the journal shows it completed in a previous run; see setJournal)
 	 * @param task
 	 */
 	public void execute(final BaseWorkTask task) {
-		mQueue.enqueue(task);
+		if (!skipCompleted(task)) {
+			mQueue.enqueue(task);
+		}
+	}
+
+	/**
+	 * Enqueues a collection of tasks;
+	 * much cheaper than calling execute() per task when queuing many small tasks
+	 * @param tasks
+	 */
+	public void executeAll(final Collection<? extends BaseWorkTask> tasks) {
+		if (journal == null) {
+			mQueue.enqueueAll(tasks);
+			return;
+		}
+		final ArrayList<BaseWorkTask> pending = new ArrayList<BaseWorkTask>(tasks.size());
+		for (BaseWorkTask task : tasks) {
+			if (!skipCompleted(task)) {
+				pending.add(task);
+			}
+		}
+		mQueue.enqueueAll(pending);
+	}
+
+	/**
+	 * Sets the retry policy of the tasks which do not define their own (see BaseWorkTask.getRetryPolicy);
+	 * default RetryPolicy.NO_RETRY.  Tasks out of attempts go to the dead letter queue.
+	 * @param policy
+	 */
+	public void setRetryPolicy(final RetryPolicy policy) {
+		retries.setDefaultPolicy(policy);
+	}
+
+	/**
+	 * Returns the tasks that failed and ran out of retries
+	 * @return
+	 */
+	public DeadLetterQueue getDeadLetterQueue() {
+		return retries.getDeadLetters();
+	}
+
+	/**
+	 * Queues a dead task again, with a fresh set of attempts
+	 * @param entry an entry taken from the dead letter queue (poll/drain)
+	 */
+	public void resubmit(final DeadLetterQueue.Entry entry) {
+		execute(entry.getTask());
+	}
+
+	/**
+	 * Queues all the dead tasks again
+	 * @return number of tasks queued
+	 */
+	public int resubmitDeadLetters() {
+		int count = 0;
+		for (DeadLetterQueue.Entry entry : retries.getDeadLetters().drain()) {
+			resubmit(entry);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Records the tasks completed from now on in the journal, and skips the tasks it already
+	 * holds (by task name) when queued, so a failed job can be rerun without redoing finished work.
+	 * A task is journaled once the transaction holding its work is committed
+	 * (see setCommitInterval and commitWorkers), or right away if there is no connection.
+	 * Tasks must have unique names to be journaled; unnamed tasks always run.
+	 * The caller closes the journal after commitWorkers().
+	 * @param journal null to stop journaling
+	 */
+	public void setJournal(final TaskJournal journal) {
+		this.journal = journal;
+		connPool.setJournal(journal);
+	}
+
+	/**
+	 * Returns the journal of completed tasks; null if not journaling
+	 * @return
+	 */
+	public TaskJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * If the journal shows the task completed in a previous run, returns it to the idle pool
+	 * (completing its submit() future, if any) instead of queuing it
+	 * @param task
+	 * @return true if the task was skipped
+	 */
+	private boolean skipCompleted(final BaseWorkTask task) {
+		final TaskJournal j = journal;
+		if (j == null || !j.isCompleted(task.getName())) {
+			return false;
+		}
+		debugLog("WorkerThreadPool: " + task.getName() + " already completed; skipped");
+		task.complete(null);
+		mQueue.addIdle(task);
+		return true;
+	}
+
+	/**
+	 * Sets the max number of tasks a worker takes from the queue at once (default 1).
+	 * Larger batches cut the synchronization cost per task for many small tasks,
+	 * at the cost of less even distribution of the last tasks.
+	 * @param size
+	 */
+	public void setDequeueBatchSize(final int size) {
+		mQueue.setBatchSize(size);
+	}
+
+	/**
+	 * Enqueues a task and returns a future which the worker completes once the task has run:
+	 * with the value the task passed to setResult(), or exceptionally with the exception run() threw.
+	 * Dependent stages added with the non-async methods (thenApply, etc) run on the worker thread;
+	 * use the *Async variants for heavy downstream work.
+	 * @param task
+	 * @return
+	 */
+	public CompletableFuture<Object> submit(final BaseWorkTask task) {
+		final CompletableFuture<Object> future = new CompletableFuture<Object>();
+		task.setFuture(future);
+		execute(task);
+		return future;
 	}
 
 	/**
 	 * Immediately shuts down executor threads
 	 */
 	public void shutdown() {
+		final WorkerScaler activeScaler = getScaler();
+		if (activeScaler != null) {
+			activeScaler.stop();
+		}
+		retries.shutdown();
 		mQueue.shutdown();
 	}
 
 	/**
-	 * Shuts down executor threads after queue is exhausted
+	 * Stops the run after a failure that lost completed work (a failed intermediate commit):
+	 * from then on the workers fail the tasks they take instead of running them
+	 * @param cause
+	 */
+	void abort(final Throwable cause) {
+		synchronized (this) {
+			if (runFailure != null) {
+				cause.printStackTrace();
+				return;
+			}
+			runFailure = cause;
+		}
+		System.err.println("Run stopped: " + cause.getMessage());
+	}
+
+	/**
+	 * Returns the failure that stopped the run (see setCommitInterval); null if none.
+	 * The tasks queued since were failed, not run: check it after the shutdown.
+	 * @return
+	 */
+	public Throwable getRunFailure() {
+		return runFailure;
+	}
+
+	/**
+	 * Shuts down executor threads after queue is exhausted;
+	 * returns as soon as the last queued task has finished
 	 *
 	 * @param waitForCompletion denotes whether to wait until all threads are finished
 	 */
 	public void gracefulShutdown(final boolean waitForCompletion) {
 		debugLog("Graceful shutdown initiated...");
 
-		//wait until queue is empty
+		//wait until all queued tasks are done
 		emptyQueue();
 
 		//notify workers to shutdown
 		shutdown();
 
 		if (waitForCompletion) {
-			//wait for all workers to finish working on last task
-			for (int i = 0; i < mPool.size(); i++) {
-				final WorkerThread worker = ((ArrayList<WorkerThread>)mPool).get(i);
-				try {
-					worker.join();
-				} catch (InterruptedException e) {
-					// we are waiting for the thread to stop, this is one of the very few
-					// times to allo swallow IE
-					e.printStackTrace();
-				}
-			}
+			//wait for all workers to leave the queue
+			joinWorkers();
 		}
 
 		//notify Param Reader to stop checking
@@ -222,6 +547,74 @@ public final class WorkerThreadPool {
 		debugLog("Graceful shutdown completed.");
 	}
 
+	/**
+	 * Graceful shutdown bounded by a timeout:
+	 * waits up to the timeout for all queued tasks to finish, then shuts down and joins the workers.
+	 * If the timeout elapses first, the pool is left running (call shutdown() to stop it).
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return true if all tasks finished and the workers stopped within the timeout; false otherwise
+	 */
+	public boolean awaitTermination(final long timeout, final TimeUnit unit) {
+		debugLog("Awaiting termination...");
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		try {
+			if (!mQueue.getTracker().await(timeout, unit)) {
+				debugLog("Timed out with " + mQueue.getTracker().getInFlight() + " tasks in flight");
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		shutdown();
+		ParameterReader.setCheckNeeded(false);
+		return joinWorkers(deadline);
+	}
+
+	/**
+	 * Waits for the workers to stop
+	 */
+	private void joinWorkers() {
+		for (int i = 0; i < mPool.size(); i++) {
+			final WorkerThread worker = ((ArrayList<WorkerThread>)mPool).get(i);
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				// we are waiting for the thread to stop, this is one of the very few
+				// times to allo swallow IE
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Waits for the workers to stop until the deadline (shared by all workers, not per worker)
+	 * @param deadlineNanos System.nanoTime() value to give up at
+	 * @return true if all workers stopped
+	 */
+	private boolean joinWorkers(final long deadlineNanos) {
+		boolean stopped = true;
+		for (int i = 0; i < mPool.size(); i++) {
+			final WorkerThread worker = ((ArrayList<WorkerThread>)mPool).get(i);
+			try {
+				final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+				if (remainingMillis > 0) {
+					worker.join(remainingMillis);
+				}
+				stopped &= !worker.isAlive();
+			} catch (InterruptedException e) {
+				// we are waiting for the thread to stop, this is one of the very few
+				// times to allo swallow IE
+				e.printStackTrace();
+				stopped = false;
+			}
+		}
+		return stopped;
+	}
+
 	/**
 	 * Checks if all workers are resting (not working on any tasks)
 	 * @return
@@ -238,19 +631,17 @@ public final class WorkerThreadPool {
 	}
 
 	/**
-	 * Blocks until the queue is empty or until all workers are resting (only when queue is empty)
+	 * Blocks until every queued task has finished running;
+	 * woken by the last worker to finish rather than polling the queue
 	 */
 	private void emptyQueue() {
-		debugLog("Emptying queue initiated...");
-		while (mQueue.getSize() > 0 || !allResting()) {
-			try {
-				debugLog("[QueueSize = " + mQueue.getSize() + "]");
-				Thread.sleep(10000);
-			} catch (InterruptedException e) {
-				// we are waiting for the thread to stop, this is one of the very few
-				// times to allo swallow IE, it makes sense make it private
-				e.printStackTrace();
-			}
+		debugLog("Emptying queue initiated... [QueueSize = " + mQueue.getSize() + "]");
+		try {
+			mQueue.getTracker().await();
+		} catch (InterruptedException e) {
+			// we are waiting for the thread to stop, this is one of the very few
+			// times to allo swallow IE, it makes sense make it private
+			e.printStackTrace();
 		}
 		debugLog("Queue Empty...");
 	}
@@ -295,13 +686,22 @@ public final class WorkerThreadPool {
 		}
 	}
 
+	/**
+	 * Returns the current number of workers
+	 * @return
+	 */
+	public synchronized int getNumThreads() {
+		return mPool.size();
+	}
+
 	/**
 	 * Adjusts the number of workers.
-	 * This method will be indirectly called by the Reader object that checks the param table for any updates
+	 * This method will be indirectly called by the Reader object that checks the param table for any updates,
+	 * or by the WorkerScaler
 	 * @param newCount
 	 * @throws TIERSBatchException
 	 */
-	public void adjustNumThreads(final int newCount) throws TIERSBatchException {
+	public synchronized void adjustNumThreads(final int newCount) throws TIERSBatchException {
 		if (mPool == null) {
 			throw new TIERSBatchException("Worker pool has not been initialized (Condition should not exist)");
 		} else {
@@ -340,6 +740,14 @@ public final class WorkerThreadPool {
 		return mQueue.getIdle();
 	}
 
+	/**
+	 * Returns the pool of idle task objects (hit/miss counters, exhaustion policy)
+	 * @return
+	 */
+	public TaskPool getIdlePool() {
+		return mQueue.getIdlePool();
+	}
+
 	/**
 	 * Enables/disables console debugging
 	 * @param debug
@@ -349,78 +757,146 @@ public final class WorkerThreadPool {
 	}
 
 	/**
-	 * Returns a map of the worker threads' connections
+	 * Returns a map of the workers' open connections (by connection name)
 	 * @return
 	 */
 	public HashMap<String, Connection> getWorkerConnections() {
-		return connMap;
+		return connPool.getConnectionMap();
+	}
+
+	/**
+	 * Sets the number of rows per statement at which the tasks' StatementBatchers send the batch
+	 * (default StatementBatcher.DEFAULT_BATCH_SIZE); pending rows are also sent at every commit
+	 * @param size
+	 */
+	public void setStatementBatchSize(final int size) {
+		connPool.setStatementBatchSize(size);
+	}
+
+	/**
+	 * Sets the number of prepared statements cached per connection (default StatementBatcher.DEFAULT_MAX_STATEMENTS);
+	 * beyond it the least recently used statement is closed
+	 * @param size
+	 */
+	public void setStatementCacheSize(final int size) {
+		connPool.setStatementCacheSize(size);
+	}
+
+	/**
+	 * Makes each worker commit its connection between tasks once it ran everyTasks tasks or
+	 * everyMillis elapsed since its last commit, keeping transactions bounded on long runs.
+	 * commitWorkers() still commits the remainder at the end.
+	 * Note: a failed intermediate commit rolls back the tasks since the previous commit, although
+	 * their futures already completed; the run is then stopped (see getRunFailure) and the remaining tasks failed.
+	 * @param everyTasks 0 to disable
+	 * @param everyMillis 0 to disable
+	 */
+	public void setCommitInterval(final int everyTasks, final long everyMillis) {
+		checkpointer.setInterval(everyTasks, everyMillis);
+	}
+
+	/**
+	 * Registers a listener called around every intermediate commit (e.g. to record progress)
+	 * @param listener
+	 */
+	public void addCheckpointListener(final CheckpointListener listener) {
+		checkpointer.addListener(listener);
+	}
+
+	public void removeCheckpointListener(final CheckpointListener listener) {
+		checkpointer.removeListener(listener);
+	}
+
+	/**
+	 * Returns number of intermediate commits done
+	 * @return
+	 */
+	public long getCheckpointCount() {
+		return checkpointer.getCheckpointCount();
+	}
+
+	/**
+	 * Returns number of intermediate commits that failed (and were rolled back)
+	 * @return
+	 */
+	public long getCheckpointFailureCount() {
+		return checkpointer.getFailureCount();
 	}
 
 	/**
-	 * Commits/rollbacks and closes the worker thread connections
+	 * Returns the pool of the workers' connections
+	 * @return
+	 */
+	public ConnectionPool getConnectionPool() {
+		return connPool;
+	}
+
+	/**
+	 * Commits/rollbacks and closes the worker thread connections.
+	 * A connection whose commit fails (including sending its pending statement batches) is rolled back.
 	 * @param isCommit boolean indicating if commit (true) or rollback (false) is needed
+	 * @return number of connections that could not be committed (their work was rolled back); 0 if all committed
 	 */
-	public void commitWorkers(final boolean isCommit, final boolean isClose) {
-		Connection workerConn;
+	public int commitWorkers(final boolean isCommit, final boolean isClose) {
 		int count = 0;
-		for (String workerName : connMap.keySet()) {
-			workerConn = (Connection) connMap.get(workerName);
-
-			if (isCommit)
-				commit(workerName, workerConn);
-			else
-				rollback(workerName, workerConn);
+		int failed = 0;
+		for (PooledConnection workerConn : connPool.getConnections()) {
+			if (isCommit) {
+				if (!commit(workerConn)) {
+					failed++;
+				}
+			} else
+				rollback(workerConn);
 
 			if (isClose) {
-				close(workerName, workerConn);
+				close(workerConn);
 			}
 			count++;
 		}
+		if (isClose) {
+			connPool.close();
+		}
 		debugLog("WorkerThreadPool: Connection commit count: " + count);
+		return failed;
 	}
 
 	/**
-	 * Commits the connection
-	 * @param wName
+	 * Commits the connection; on failure it is rolled back and the failure printed (always, not only when debugging)
 	 * @param wConn
+	 * @return false if the commit failed
 	 */
-	private void commit(final String wName, final Connection wConn) {
-		if (wConn != null) {
-			try {
-				wConn.commit();
-			} catch (SQLException e) {
-				debugLog("WorkerThreadPool: Unable to commit for " + wName + ": " + e.getMessage());
-			}
+	private boolean commit(final PooledConnection wConn) {
+		try {
+			wConn.commit();
+			return true;
+		} catch (SQLException e) {
+			System.err.println("WorkerThreadPool: Unable to commit for " + wConn.getName() + "; rolled back");
+			e.printStackTrace();
+			return false;
 		}
 	}
 
 	/**
 	 * Commits the connection
-	 * @param wName
 	 * @param wConn
 	 */
-	private void rollback(final String wName, final Connection wConn) {
-		if (wConn != null) {
-			try {
-				wConn.rollback();
-			} catch (SQLException e) {
-				debugLog("WorkerThreadPool: Unable to rollback for " + wName + ": " + e.getMessage());
-			}
+	private void rollback(final PooledConnection wConn) {
+		try {
+			wConn.rollback();
+		} catch (SQLException e) {
+			debugLog("WorkerThreadPool: Unable to rollback for " + wConn.getName() + ": " + e.getMessage());
 		}
 	}
 
 	/**
 	 * Closes the connection
-	 * @param wName
 	 * @param wConn
 	 */
-	private void close(final String wName, final Connection wConn) {
-		if (wConn != null) {
-			try {
-				wConn.close();
-			} catch (SQLException e) {
-				debugLog("WorkerThreadPool: Unable to close for " + wName + ": " + e.getMessage());
-			}
+	private void close(final PooledConnection wConn) {
+		try {
+			wConn.close();
+		} catch (SQLException e) {
+			debugLog("WorkerThreadPool: Unable to close for " + wConn.getName() + ": " + e.getMessage());
 		}
 	}
 }